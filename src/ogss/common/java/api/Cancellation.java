@@ -0,0 +1,95 @@
+package ogss.common.java.api;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token to abandon opening or flushing a state. A token is cancelled explicitly or by passing its deadline.
+ * Operations observing a cancelled token fail fast with an OGSSException; their jobs that did not start yet are
+ * skipped.
+ *
+ * @note a token can be shared by several operations, e.g. by all loads of a request
+ */
+public final class Cancellation {
+
+    /**
+     * A token that is never cancelled.
+     */
+    public static final Cancellation none = new Cancellation(false, 0);
+
+    /**
+     * the interval in which waiting threads observe cancellation
+     */
+    private static final long POLL = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private final boolean hasDeadline;
+
+    /**
+     * the deadline in terms of System.nanoTime
+     */
+    private final long deadline;
+
+    /**
+     * the reason of cancellation or null, if the token has not been cancelled
+     */
+    private volatile String reason;
+
+    private Cancellation(boolean hasDeadline, long deadline) {
+        this.hasDeadline = hasDeadline;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Create a token that is cancelled by cancel only.
+     */
+    public Cancellation() {
+        this(false, 0);
+    }
+
+    /**
+     * @return a token that is cancelled when timeout has passed or by cancel
+     */
+    public static Cancellation after(long timeout, TimeUnit unit) {
+        return new Cancellation(true, System.nanoTime() + unit.toNanos(timeout));
+    }
+
+    public void cancel() {
+        if (this == none)
+            throw new IllegalStateException("none cannot be cancelled");
+        if (null == reason)
+            reason = "cancelled";
+    }
+
+    public boolean isCancelled() {
+        if (null == reason && hasDeadline && System.nanoTime() - deadline >= 0)
+            reason = "deadline exceeded";
+        return null != reason;
+    }
+
+    /**
+     * @throws OGSSException
+     *             if the token has been cancelled
+     */
+    public void check() throws OGSSException {
+        if (isCancelled())
+            throw new OGSSException(reason);
+    }
+
+    /**
+     * Acquire permits from s unless the token is cancelled.
+     *
+     * @throws OGSSException
+     *             if the token has been cancelled before acquire returns; acquired permits are kept in this case
+     * @note cancel does not wake waiting threads, hence they may observe cancellation with a short delay
+     */
+    public void acquire(Semaphore s, int permits) throws OGSSException, InterruptedException {
+        if (this == none) {
+            s.acquire(permits);
+            return;
+        }
+        while (!s.tryAcquire(permits, hasDeadline ? Math.max(0, Math.min(POLL, deadline - System.nanoTime())) : POLL,
+                TimeUnit.NANOSECONDS))
+            check();
+        check();
+    }
+}
@@ -0,0 +1,132 @@
+package ogss.common.java.api;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * A compression codec for HD entries. The header of an entry, i.e. its field ID, count and block index, is written as
+ * is; the remaining data is compressed by the job that writes the entry. Hence, entries are compressed and decompressed
+ * in parallel.
+ *
+ * @note codecs are used by multiple threads concurrently
+ * @note files store the ID of their codec; a codec has to be registered before files using it can be read
+ */
+public abstract class Codec {
+
+    private static final Codec[] codecs = new Codec[128];
+
+    /**
+     * Deflate as implemented by java.util.zip using the default compression level.
+     */
+    public static final Codec Deflate = new Deflate(Deflater.DEFAULT_COMPRESSION);
+
+    static {
+        register(Deflate);
+    }
+
+    /**
+     * The ID of the codec in files. IDs are in [1, 127].
+     */
+    public final int id;
+
+    protected Codec(int id) {
+        if (id < 1 || 127 < id)
+            throw new IllegalArgumentException("codec IDs have to be in [1, 127]");
+        this.id = id;
+    }
+
+    /**
+     * @return the compressed image of data
+     */
+    public abstract byte[] compress(byte[] data);
+
+    /**
+     * Decompress data into target.
+     *
+     * @param target
+     *            an array having the size of the original data
+     * @throws IOException
+     *             if data is not a valid image
+     */
+    public abstract void decompress(byte[] data, byte[] target) throws IOException;
+
+    /**
+     * Make a codec available to readers.
+     *
+     * @throws IllegalArgumentException
+     *             if another codec has been registered with the same ID
+     */
+    public static synchronized void register(Codec codec) {
+        final Codec c = codecs[codec.id];
+        if (null != c && c.getClass() != codec.getClass())
+            throw new IllegalArgumentException(String.format("codec ID %d is used by %s", codec.id, c));
+        if (null == c)
+            codecs[codec.id] = codec;
+    }
+
+    /**
+     * @return the codec registered for id or null, if there is none
+     */
+    public static synchronized Codec get(int id) {
+        return 0 < id && id < codecs.length ? codecs[id] : null;
+    }
+
+    /**
+     * A Deflate codec using an arbitrary compression level. Files do not store the level.
+     */
+    public static final class Deflate extends Codec {
+        private final int level;
+
+        public Deflate(int level) {
+            super(1);
+            this.level = level;
+        }
+
+        @Override
+        public byte[] compress(byte[] data) {
+            final Deflater d = new Deflater(level);
+            try {
+                d.setInput(data);
+                d.finish();
+                byte[] r = new byte[Math.max(64, data.length / 2)];
+                int size = 0;
+                while (!d.finished()) {
+                    if (size == r.length)
+                        r = Arrays.copyOf(r, 2 * r.length);
+                    size += d.deflate(r, size, r.length - size);
+                }
+                return Arrays.copyOf(r, size);
+            } finally {
+                d.end();
+            }
+        }
+
+        @Override
+        public void decompress(byte[] data, byte[] target) throws IOException {
+            final Inflater i = new Inflater();
+            try {
+                i.setInput(data);
+                int size = 0;
+                while (size < target.length) {
+                    final int n = i.inflate(target, size, target.length - size);
+                    if (0 == n && (i.finished() || i.needsInput() || i.needsDictionary()))
+                        throw new ZipException(String.format("expected %d bytes, but got %d", target.length, size));
+                    size += n;
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            } finally {
+                i.end();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Deflate";
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ogss.common.java.api;
+
+/**
+ * Guarantees given by flush and close once they return.
+ */
+public enum Durability {
+    /**
+     * The file is written in place, but it is left to the operating system when data reaches the disk.
+     */
+    NoSync,
+    /**
+     * The file is written in place and its content is synced to disk. This is the default.
+     */
+    DataSync,
+    /**
+     * The file is written to a temporary file next to the target, synced including its metadata and moved atomically
+     * to the target path. Readers of the old file are not affected and a crash leaves either the old or the new file.
+     */
+    FullSync;
+}
@@ -6,5 +6,31 @@ package ogss.common.java.api;
  * @author Timm Felden
  */
 public enum Mode {
-    Create, Read, Write, ReadOnly;
+    Create, Read, Write, ReadOnly,
+    /**
+     * Like Write, but flush appends new objects to the file instead of rewriting it, if possible.
+     * 
+     * @note appending requires objects of the file to be unmodified; this can only be guaranteed by bindings whose
+     *       pools track modifications, otherwise the file is rewritten
+     */
+    Append,
+    /**
+     * Decode all strings of the file in parallel while field data is read instead of decoding them on first access.
+     */
+    EagerStrings,
+    /**
+     * Read data of known fields on first access instead of while opening the file.
+     * 
+     * @note known fields are read while opening the file anyway, unless the binding's field accessors call
+     *       FieldDeclaration.ensureLoaded
+     */
+    LazyFields,
+    /**
+     * Parse the file in the calling thread. By default, the parser is chosen by file size and available cores.
+     */
+    Sequential,
+    /**
+     * Parse the file in parallel regardless of its size.
+     */
+    Parallel;
 }
@@ -0,0 +1,55 @@
+package ogss.common.java.api;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * A selection of the types and fields whose data is read when a file is opened. Data of other fields is not read.
+ * Their values are defaults, unless the state is writable, in which case they are read on first access or, for known
+ * fields of a binding whose accessors do not load deferred data, while opening the file.
+ *
+ * @note names are the names used in the file; a type does not select fields of its sub types
+ */
+public final class Projection {
+
+    // types whose fields are selected
+    private final HashSet<String> types = new HashSet<>();
+
+    // selected fields by type
+    private final HashMap<String, HashSet<String>> fields = new HashMap<>();
+
+    private Projection() {
+    }
+
+    /**
+     * @param names
+     *            names of types selecting all fields declared by the type or names of fields qualified by their type,
+     *            i.e. "type.field"
+     */
+    public static Projection of(String... names) {
+        final Projection r = new Projection();
+        for (String n : names) {
+            final int dot = n.indexOf('.');
+            if (dot < 0)
+                r.types.add(n);
+            else {
+                final String type = n.substring(0, dot);
+                HashSet<String> fs = r.fields.get(type);
+                if (null == fs)
+                    r.fields.put(type, fs = new HashSet<>());
+                fs.add(n.substring(dot + 1));
+            }
+        }
+        return r;
+    }
+
+    /**
+     * @return true, iff the field of the argument type is selected
+     */
+    public boolean contains(String type, String field) {
+        if (types.contains(type))
+            return true;
+        final HashSet<String> fs = fields.get(type);
+        return null != fs && fs.contains(field);
+    }
+}
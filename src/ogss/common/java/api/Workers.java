@@ -0,0 +1,147 @@
+package ogss.common.java.api;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for the asynchronous (de)serialization jobs of states.
+ *
+ * @note jobs never block on other jobs, hence any executor can be used, including one that runs jobs in the calling
+ *       thread
+ */
+public final class Workers {
+    private Workers() {
+    }
+
+    /**
+     * The default executor. It is a fixed pool of daemon threads shared by all states.
+     */
+    public static final Executor shared = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
+            Runtime.getRuntime().availableProcessors(), 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setName("OGSSWorker");
+                    return t;
+                }
+            });
+
+    /**
+     * Run jobs in the thread submitting them, i.e. read and write sequentially.
+     */
+    public static final Executor callerRuns = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    /**
+     * @return the common fork join pool
+     */
+    public static Executor forkJoin() {
+        return ForkJoinPool.commonPool();
+    }
+
+    /**
+     * @return an executor starting a virtual thread for each job
+     * @throws UnsupportedOperationException
+     *             if the JVM does not support virtual threads
+     */
+    public static Executor virtualThreads() {
+        if (null == VirtualThreads.executor)
+            throw new UnsupportedOperationException("virtual threads require Java 21 or newer");
+        return VirtualThreads.executor;
+    }
+
+    private static final class VirtualThreads {
+        static final Executor executor;
+        static {
+            Executor e;
+            try {
+                e = (Executor) java.util.concurrent.Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException ex) {
+                e = null;
+            }
+            executor = e;
+        }
+    }
+
+    /**
+     * Limit the number of jobs running concurrently on a shared executor, e.g. to limit the parallelism of a single
+     * state.
+     *
+     * @return an executor running at most parallelism of its jobs on base at the same time
+     */
+    public static Executor limit(Executor base, int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism has to be positive");
+        return new Limited(base, parallelism);
+    }
+
+    private static final class Limited implements Executor {
+        private final Executor base;
+        private final int parallelism;
+
+        private final ConcurrentLinkedQueue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+        /**
+         * the number of workers submitted to base
+         */
+        private final AtomicInteger active = new AtomicInteger();
+
+        /**
+         * a worker runs jobs until the queue is empty
+         */
+        private final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Runnable job;
+                    while (null != (job = queue.poll()))
+                        job.run();
+                } finally {
+                    active.decrementAndGet();
+                    // @note a job may have been queued after our last poll
+                    schedule();
+                }
+            }
+        };
+
+        Limited(Executor base, int parallelism) {
+            this.base = base;
+            this.parallelism = parallelism;
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            queue.add(command);
+            schedule();
+        }
+
+        private void schedule() {
+            while (!queue.isEmpty()) {
+                final int a = active.get();
+                if (a >= parallelism)
+                    return;
+                if (active.compareAndSet(a, a + 1)) {
+                    try {
+                        base.execute(worker);
+                    } catch (RuntimeException e) {
+                        active.decrementAndGet();
+                        throw e;
+                    }
+                }
+            }
+        }
+    }
+}
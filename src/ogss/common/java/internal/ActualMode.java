@@ -13,6 +13,13 @@ public class ActualMode {
 
     public final boolean create;
     public final boolean write;
+    public final boolean append;
+    public final boolean eagerStrings;
+    public final boolean lazyFields;
+    /**
+     * Sequential or Parallel, if the parser was requested explicitly; null, if it is chosen by the parser policy
+     */
+    public final Mode parser;
 
     public ActualMode(Mode... modes) throws IOException {
         // determine open mode
@@ -21,7 +28,8 @@ public class ActualMode {
         // yet
         // @note write is preferred over append, because usage is more
         // inuitive
-        Mode openMode = null, closeMode = null;
+        Mode openMode = null, closeMode = null, parser = null;
+        boolean eagerStrings = false, lazyFields = false;
         for (Mode m : modes)
             switch (m) {
             case Create:
@@ -33,10 +41,24 @@ public class ActualMode {
                 break;
             case ReadOnly:
             case Write:
+            case Append:
                 if (null == closeMode)
                     closeMode = m;
                 else if (closeMode != m)
-                    throw new IOException("You can use either write or readOnly.");
+                    throw new IOException("You can use either write, append or readOnly.");
+                break;
+            case EagerStrings:
+                eagerStrings = true;
+                break;
+            case LazyFields:
+                lazyFields = true;
+                break;
+            case Sequential:
+            case Parallel:
+                if (null == parser)
+                    parser = m;
+                else if (parser != m)
+                    throw new IOException("You can either parse sequentially or in parallel.");
                 break;
             default:
                 break;
@@ -47,6 +69,10 @@ public class ActualMode {
             closeMode = Mode.Write;
 
         this.create = openMode == Mode.Create;
-        this.write = closeMode == Mode.Write;
+        this.write = closeMode != Mode.ReadOnly;
+        this.append = closeMode == Mode.Append;
+        this.eagerStrings = eagerStrings;
+        this.lazyFields = lazyFields;
+        this.parser = parser;
     }
 }
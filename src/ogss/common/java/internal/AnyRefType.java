@@ -23,6 +23,11 @@ public final class AnyRefType extends ByRefType<Obj> {
 
     State owner;
 
+    /**
+     * the SIFA of the type system; required to write objects without a state
+     */
+    FieldType<?>[] SIFA;
+
     /**
      * @param types
      *            the array list containing all types valid inside of a state
@@ -55,7 +60,7 @@ public final class AnyRefType extends ByRefType<Obj> {
         }
 
         int stid = ref.stid();
-        Pool<?> p = -1 != stid ? (Pool<?>) owner.SIFA[stid] : ((NamedObj) ref).τp();
+        Pool<?> p = -1 != stid ? (Pool<?>) SIFA[stid] : ((NamedObj) ref).τp();
         out.v64(p.typeID - 9);
         out.v64(ref.ID());
 
@@ -1,6 +1,6 @@
 package ogss.common.java.internal;
 
-import ogss.common.jvm.streams.BufferedOutStream;
+import ogss.common.java.internal.streams.BlockOutStream;
 import ogss.common.jvm.streams.MappedInStream;
 
 import java.io.IOException;
@@ -31,7 +31,7 @@ public abstract class ContainerType<T> extends HullType<T> {
      * @return true iff hull shall be discarded (i.e. it is empty)
      * @note the fieldID is written by the caller
      */
-    protected abstract void write(int i, final int end, BufferedOutStream out) throws IOException;
+    protected abstract void write(int i, final int end, BlockOutStream out) throws IOException;
 
     @Override
     public final Iterator<T> iterator() {
@@ -1,5 +1,7 @@
 package ogss.common.java.internal;
 
+import java.util.concurrent.Executor;
+
 import ogss.common.java.internal.fieldDeclarations.AutoField;
 import ogss.common.java.internal.fieldTypes.ArrayType;
 import ogss.common.java.internal.fieldTypes.ListType;
@@ -14,8 +16,8 @@ import ogss.common.java.internal.fieldTypes.SetType;
  */
 final public class Creator extends StateInitializer {
 
-    Creator(PoolBuilder pb) {
-        super(pb);
+    Creator(PoolBuilder pb, Executor executor) {
+        super(pb, executor);
 
         guard = "";
 
@@ -5,8 +5,8 @@ import java.util.IdentityHashMap;
 
 import ogss.common.java.internal.fieldTypes.BoolType;
 import ogss.common.jvm.streams.BoolOutWrapper;
-import ogss.common.jvm.streams.BufferedOutStream;
 import ogss.common.jvm.streams.MappedInStream;
+import ogss.common.jvm.streams.OutStream;
 
 /**
  * The fields data is distributed into an array (for now its a hash map) holding its instances.
@@ -23,10 +23,20 @@ public class DistributedField<T, Ref extends Obj> extends FieldDeclaration<T, Re
     protected final IdentityHashMap<Obj, T> newData = new IdentityHashMap<>();
 
     @Override
+    @SuppressWarnings("unchecked")
     protected void read(int i, final int h, MappedInStream in) {
+        // @note lazy fields are loaded on first access, which can be the first access to their objects
+        owner.materializeAll();
         final Obj[] d = owner.basePool.data;
-        for (; i != h; i++) {
-            data.put(d[i], type.r(in));
+        // @note blocks of a field are read concurrently, hence values are decoded before data is locked
+        final Object[] values = new Object[h - i];
+        for (int j = 0; j < values.length; j++) {
+            values[j] = type.r(in);
+        }
+        synchronized (data) {
+            for (int j = 0; i != h; i++, j++) {
+                data.put(d[i], (T) values[j]);
+            }
         }
     }
 
@@ -45,7 +55,7 @@ public class DistributedField<T, Ref extends Obj> extends FieldDeclaration<T, Re
     }
 
     @Override
-    protected final boolean write(int i, final int h, BufferedOutStream out) throws IOException {
+    protected final boolean write(int i, final int h, OutStream out) throws IOException {
         boolean drop = true;
         final Obj[] d = owner.data;
         if (type instanceof BoolType) {
@@ -71,37 +81,46 @@ public class DistributedField<T, Ref extends Obj> extends FieldDeclaration<T, Re
 
         T r = data.get(ref);
         // fix returned values for dropped distributed fields
-        if (null == r) {
-            switch (type.typeID) {
-            case 0:
-                return (T) Boolean.FALSE;
-            case 1:
-                return (T) (Byte) (byte) 0;
-            case 2:
-                return (T) (Short) (short) 0;
-            case 3:
-                return (T) (Integer) 0;
-            case 4:
-            case 5:
-                return (T) (Long) 0L;
-            case 6:
-                return (T) (Float) 0f;
-            case 7:
-                return (T) (Double) 0.0;
-            }
-            if (type instanceof EnumPool<?>)
-                return (T) ((EnumPool<?>) type).fileValues[0];
-        }
+        if (null == r)
+            return (T) defaultValue(type);
         return r;
     }
 
+    /**
+     * @return the value represented by a field of the argument type that has no data
+     */
+    static Object defaultValue(FieldType<?> type) {
+        switch (type.typeID) {
+        case 0:
+            return Boolean.FALSE;
+        case 1:
+            return (byte) 0;
+        case 2:
+            return (short) 0;
+        case 3:
+            return 0;
+        case 4:
+        case 5:
+            return 0L;
+        case 6:
+            return 0f;
+        case 7:
+            return 0.0;
+        }
+        if (type instanceof EnumPool<?>)
+            return ((EnumPool<?>) type).fileValues[0];
+        return null;
+    }
+
     @Override
     public void set(Obj ref, T value) {
         if (-1 == ref.ID)
             newData.put(ref, value);
-        else
+        else {
             data.put(ref, value);
-
+            if (0 < ref.ID)
+                owner.modified();
+        }
     }
 
 }
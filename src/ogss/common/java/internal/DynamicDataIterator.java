@@ -26,6 +26,7 @@ public final class DynamicDataIterator<T extends Obj> implements Iterator<T> {
         // find an instance in first phase
         index = p.bpo;
         last = index + p.cachedSize;
+        p.materializeAll();
 
         // mode switch, if no values obtained from data
         if (index == last) {
@@ -1,13 +1,16 @@
 package ogss.common.java.internal;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 
+import ogss.common.java.internal.exceptions.PoolSizeMissmatchError;
 import ogss.common.java.internal.fieldDeclarations.AutoField;
 import ogss.common.java.restrictions.FieldRestriction;
-import ogss.common.jvm.streams.BufferedOutStream;
 import ogss.common.jvm.streams.MappedInStream;
+import ogss.common.jvm.streams.OutStream;
 
 /**
  * Actual implementation as used by all bindings.
@@ -45,7 +48,7 @@ abstract public class FieldDeclaration<T, Ref extends Obj> extends ogss.common.j
     int blocks;
 
     /**
-     * The maximum size of a block.
+     * The default maximum size of a block.
      */
     public static final int FD_Threshold = 1048576;
 
@@ -68,9 +71,7 @@ abstract public class FieldDeclaration<T, Ref extends Obj> extends ogss.common.j
      * Check consistency of restrictions on this field.
      */
     final void check() {
-        if (this instanceof LazyField) {
-            ((LazyField<?, ?>) this).ensureLoaded();
-        }
+        ensureLoaded();
 
         if (!restrictions.isEmpty())
             for (Obj x : owner)
@@ -126,13 +127,67 @@ abstract public class FieldDeclaration<T, Ref extends Obj> extends ogss.common.j
      */
     protected abstract void read(int i, final int last, MappedInStream in);
 
+    // deferred reading info: one chunk per HD entry
+    private static final class Chunk {
+        final int first;
+        final int last;
+        final MappedInStream in;
+
+        Chunk(int first, int last, MappedInStream in) {
+            this.first = first;
+            this.last = last;
+            this.in = in;
+        }
+    }
+
+    // is loaded <-> chunks == null
+    private volatile ArrayList<Chunk> chunks;
+
+    /**
+     * Defer reading of data until the field is accessed. Used by parsers for lazy fields.
+     * 
+     * @note blocks of a field are deferred in parallel
+     */
+    final synchronized void defer(int i, int last, MappedInStream in) {
+        if (null == chunks)
+            chunks = new ArrayList<>();
+        chunks.add(new Chunk(i, last, in));
+    }
+
+    /**
+     * Read deferred data, if any. Accessors of known fields have to call this before accessing values, if their
+     * PoolBuilder reports lazyAccessors.
+     */
+    public final void ensureLoaded() {
+        if (null != chunks)
+            load();
+    }
+
+    // executes pending read operations
+    private synchronized void load() {
+        if (null == chunks)
+            return;
+
+        for (Chunk c : chunks) {
+            try {
+                read(c.first, c.last, c.in);
+            } catch (BufferUnderflowException e) {
+                throw new PoolSizeMissmatchError(c.first, c.last, this, e);
+            }
+            if (!c.in.eof())
+                throw new PoolSizeMissmatchError(c.in.position(), c.first, c.last, this);
+        }
+        chunks = null;
+    }
+
     /**
      * write data into a map at the end of a write/append operation
      * 
      * @note only called, if there actually is field data to be written
+     * @note out is an in-memory buffer of the writer; implementations must only use the API of OutStream
      * @return true iff the written data contains default values only
      */
-    protected abstract boolean write(int i, final int last, BufferedOutStream out) throws IOException;
+    protected abstract boolean write(int i, final int last, OutStream out) throws IOException;
 
     /**
      * punch a hole into the java type system :)
@@ -39,10 +39,15 @@ public abstract class HullType<T> extends ByRefType<T> {
     int maxDeps = 0;
 
     /**
-     * The maximum size of a block.
+     * The default maximum size of a block.
      */
     protected static final int HD_Threshold = 16384;
 
+    /**
+     * The maximum size of a block of the file being read. It is set by the parser before the hull is allocated.
+     */
+    protected int blockSize = HD_Threshold;
+
     /**
      * get object by ID
      */
@@ -68,11 +68,8 @@ final public class InterfacePool<T, B extends Obj> extends FieldType<T> implemen
     @SuppressWarnings("unchecked")
     @Override
     public T r(InStream in) {
-        int index = in.v32() - 1;
-        final Obj[] data = superPool.data;
-        if (index < 0 | data.length <= index)
-            return null;
-        return (T) data[index];
+        // @note get materializes lazily allocated instances
+        return (T) superPool.get(in.v32());
     }
 
     @Override
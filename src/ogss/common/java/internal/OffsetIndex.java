@@ -0,0 +1,91 @@
+package ogss.common.java.internal;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import ogss.common.java.internal.fieldTypes.BoolType;
+
+/**
+ * A sparse offset index of the data of an HD entry. The index is created by a scan that skips values without decoding
+ * them. It allows to read a single large block by several jobs.
+ *
+ * @note only types whose values are encoded by a fixed number of bytes, a single bit or a single v64 can be indexed
+ */
+final class OffsetIndex {
+    private OffsetIndex() {
+    }
+
+    /**
+     * @return the number of bytes of a value, 0 for v64 encoded values or -1, if values cannot be skipped
+     */
+    private static int size(FieldType<?> type) {
+        switch (type.typeID) {
+        case 1:
+            return 1;
+        case 2:
+            return 2;
+        case 3:
+        case 6:
+            return 4;
+        case 4:
+        case 7:
+            return 8;
+        case 5:
+        case 9:
+            return 0;
+        }
+        // references are encoded as a single v32
+        if (type instanceof Pool<?> || type instanceof HullType<?> || type instanceof EnumPool<?>)
+            return 0;
+        return -1;
+    }
+
+    /**
+     * Calculate the offsets of every step'th value of data.
+     *
+     * @param step
+     *            the number of values between entries; a multiple of 8, so that bools start at a byte boundary
+     * @return absolute positions of the values with index k * step in data; null, if the type cannot be indexed
+     * @throws BufferUnderflowException
+     *             if data holds less than count values
+     */
+    static int[] offsets(FieldType<?> type, ByteBuffer data, int count, int step) {
+        final int[] r = new int[(count - 1) / step + 1];
+        final int start = data.position();
+
+        if (type instanceof BoolType) {
+            for (int k = 0; k < r.length; k++)
+                r[k] = start + k * (step >> 3);
+            return r;
+        }
+
+        final int size = size(type);
+        if (size > 0) {
+            for (int k = 0; k < r.length; k++)
+                r[k] = start + k * step * size;
+            return r;
+        }
+        if (size < 0)
+            return null;
+
+        // skip v64s; the ninth byte of a v64 has no continuation bit
+        final int limit = data.limit();
+        int p = start;
+        for (int i = 0, k = 0; i < count; i++) {
+            if (0 == i % step)
+                r[k++] = p;
+
+            for (int j = 0;;) {
+                if (p >= limit)
+                    throw new BufferUnderflowException();
+                if (data.get(p++) >= 0)
+                    break;
+                if (8 == ++j) {
+                    p++;
+                    break;
+                }
+            }
+        }
+        return r;
+    }
+}
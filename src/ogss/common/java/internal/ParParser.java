@@ -1,16 +1,25 @@
 package ogss.common.java.internal;
 
+import java.io.IOException;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import ogss.common.java.api.Cancellation;
+import ogss.common.java.api.Codec;
 import ogss.common.java.api.OGSSException;
+import ogss.common.java.api.Projection;
 import ogss.common.java.internal.exceptions.PoolSizeMissmatchError;
-import ogss.common.jvm.streams.FileInputStream;
+import ogss.common.java.internal.fieldDeclarations.KnownField;
+import ogss.common.java.internal.streams.SegmentedInputStream;
 import ogss.common.jvm.streams.MappedInStream;
 
 /**
- * The parallel version of Parser.
+ * The parallel version of Parser. Pools and HD entries that are too small to pay off a job are processed by the parsing
+ * thread while jobs process the large ones.
  *
  * @author Timm Felden
  */
@@ -19,10 +28,26 @@ public final class ParParser extends Parser {
     // synchronization of field read jobs
     Semaphore barrier;
 
+    /**
+     * the number of pool allocation jobs that have not been awaited; segments allocate their objects synchronously
+     */
+    private int allocations;
+
     OGSSException readErrors;
 
-    ParParser(FileInputStream in, PoolBuilder pb) {
-        super(in, pb);
+    /**
+     * Blocks of known fields with at least twice as many values are read by several jobs.
+     */
+    static final int SPLIT_LIMIT = 1 << 16;
+
+    /**
+     * Pools with at least twice as many static instances are allocated by several jobs, if they can allocate ranges.
+     */
+    static final int ALLOCATION_CHUNK = 1 << 18;
+
+    ParParser(SegmentedInputStream input, PoolBuilder pb, ActualMode modes, Executor executor,
+            Projection projection, Cancellation cancellation) throws IOException {
+        super(input, pb, modes, executor, projection, cancellation);
     }
 
     /**
@@ -37,6 +62,7 @@ public final class ParParser extends Parser {
          * *************** * T Class * ****************
          */
         typeDefinitions();
+        allocations = classes.size();
 
         // calculate cached size and next for all pools
         {
@@ -68,18 +94,10 @@ public final class ParParser extends Parser {
                         d = new Obj[p.cachedSize];
                     }
                     p.data = d;
-                    if (0 != p.staticDataInstances) {
-                        State.pool.execute(new Runnable() {
-                            @Override
-                            public void run() {
-                                p.allocateInstances();
-                                barrier.release();
-                            }
-                        });
-                    } else {
-                        // we would not allocate an instance anyway
-                        barrier.release();
-                    }
+                    if (deferrable(p))
+                        p.deferred = true;
+                    else
+                        allocate(p);
                 }
             }
         }
@@ -100,6 +118,58 @@ public final class ParParser extends Parser {
         for (Pool<?> p : classes) {
             readFields(p);
         }
+
+        // allocate deferred instances that are required to read field data
+        for (Pool<?> p : classes) {
+            if (p.deferred) {
+                if (readsInstances(p)) {
+                    p.deferred = false;
+                    allocate(p);
+                } else {
+                    barrier.release();
+                }
+            }
+        }
+    }
+
+    /**
+     * Allocate the instances of p and release the barrier afterwards.
+     */
+    private void allocate(final Pool<?> p) {
+        // @note an empty range tells us whether p can allocate ranges
+        if (2 * ALLOCATION_CHUNK <= p.staticDataInstances && p.allocateInstances(p.bpo, p.bpo)) {
+            final int chunks = (p.staticDataInstances - 1) / ALLOCATION_CHUNK + 1;
+            final AtomicInteger pending = new AtomicInteger(chunks);
+            for (int c = 0; c < chunks; c++) {
+                final int i = p.bpo + c * ALLOCATION_CHUNK;
+                final int h = Math.min(i + ALLOCATION_CHUNK, p.bpo + p.staticDataInstances);
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (!cancellation.isCancelled())
+                            p.allocateInstances(i, h);
+                        if (0 == pending.decrementAndGet())
+                            barrier.release();
+                    }
+                });
+            }
+        } else if (INLINE_INSTANCES <= p.staticDataInstances) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!cancellation.isCancelled())
+                        p.allocateInstances();
+                    barrier.release();
+                }
+            });
+        } else if (0 != p.staticDataInstances) {
+            // small pools are not worth a job
+            p.allocateInstances();
+            barrier.release();
+        } else {
+            // we would not allocate an instance anyway
+            barrier.release();
+        }
     }
 
     // jobs is a field as we need it for await
@@ -109,7 +179,7 @@ public final class ParParser extends Parser {
      * Jump through HD-entries to create read tasks
      */
     @Override
-    final void processData() {
+    final void processData() throws IOException {
 
         // we expect one HD-entry per field
         jobs = new ArrayList<>(fields.size());
@@ -118,58 +188,115 @@ public final class ParParser extends Parser {
 
         // use a big lock on jobs, because we are usually the only ones who insert anyway
         synchronized (jobs) {
-            while (!in.eof()) {
+            while (!input.eof()) {
+                cancellation.check();
+
                 // create the map directly and use it for subsequent read-operations to avoid costly position and size
                 // readjustments
-                final MappedInStream map = in.map(in.v32() + 2);
+                final MappedInStream map = input.nextBlock();
 
+                final int start = map.asByteBuffer().position();
                 final int id = map.v32();
+                if (SEGMENT_ID == id) {
+                    segment = map;
+                    break;
+                }
+                if (CODEC_ID == id) {
+                    codec = readCodec(map);
+                    continue;
+                }
+                if (BLOCKS_ID == id) {
+                    readBlocks(map);
+                    continue;
+                }
+                if (CHECKSUM_ID == id) {
+                    readChecksums(map);
+                    continue;
+                }
                 final Object f = fields.get(id);
+                if (skip(f))
+                    continue;
+                final long checksum = checksum(map, start);
 
                 // TODO add a countermeasure against duplicate buckets / fieldIDs
 
                 if (f instanceof HullType<?>) {
                     final int count = map.v32();
                     final HullType<?> p = (HullType<?>) f;
+                    final Codec c = codec;
+                    p.blockSize = hullBlock;
 
                     // start hull allocation job
                     awaitHulls++;
-                    State.pool.execute(new Runnable() {
+                    final Runnable job = new Runnable() {
                         @Override
                         public void run() {
-                            int block = p.allocateInstances(count, map);
-
-                            // create hull read data task except for StringPool which is still lazy per element and
-                            // eager per offset
-                            if (p instanceof ContainerType<?>) {
-                                // @note modification of the job queue requires synchronization
-                                synchronized (jobs) {
-                                    jobs.add(new HRT((ContainerType<?>) p, block, map));
+                            try {
+                                if (cancellation.isCancelled())
+                                    return;
+                                verify(map, checksum);
+                                final MappedInStream data = decompress(c, map);
+                                int block = p.allocateInstances(count, data);
+
+                                // create hull read data task except for StringPool which is still lazy per element and
+                                // eager per offset
+                                if (p instanceof ContainerType<?>) {
+                                    // @note modification of the job queue requires synchronization
+                                    synchronized (jobs) {
+                                        jobs.add(new HRT((ContainerType<?>) p, block, data));
+                                    }
+                                } else if (modes.eagerStrings) {
+                                    // decode the hull in blocks together with field data
+                                    final int last = Strings.idMap.size();
+                                    synchronized (jobs) {
+                                        for (int i = last - count; i < last; i += HullType.HD_Threshold)
+                                            jobs.add(new SRT(i, Math.min(last, i + HullType.HD_Threshold)));
+                                    }
                                 }
+                            } catch (OGSSException e) {
+                                synchronized (fields) {
+                                    if (null == readErrors)
+                                        readErrors = e;
+                                    else
+                                        readErrors.addSuppressed(e);
+                                }
+                            } finally {
+                                barrier.release();
                             }
-
-                            barrier.release();
                         }
-                    });
+                    };
+                    if (map.asByteBuffer().remaining() < INLINE_LIMIT)
+                        job.run();
+                    else
+                        executor.execute(job);
 
                 } else {
                     // create job with adjusted size that corresponds to the * in the specification (i.e. exactly the
                     // data)
-                    jobs.add(new ReadTask((FieldDeclaration<?, ?>) f, map));
+                    jobs.add(new ReadTask((FieldDeclaration<?, ?>) f, map, codec, fieldBlock, checksum));
                 }
             }
         }
 
         // await allocations of class and hull types
         try {
-            barrier.acquire(classes.size() + awaitHulls);
+            cancellation.acquire(barrier, allocations + awaitHulls);
+            allocations = 0;
         } catch (InterruptedException e) {
             throw new OGSSException("internal error: unexpected foreign exception", e);
         }
 
-        // start read tasks
-        for (Runnable j : jobs)
-            State.pool.execute(j);
+        // start read tasks of large entries and read small entries in this thread meanwhile
+        final ArrayList<Runnable> inline = new ArrayList<>();
+        for (Runnable j : jobs) {
+            if (j instanceof ReadTask ? ((ReadTask) j).map.asByteBuffer().remaining() < INLINE_LIMIT
+                    : j instanceof HRT && ((HRT) j).in.asByteBuffer().remaining() < INLINE_LIMIT)
+                inline.add(j);
+            else
+                executor.execute(j);
+        }
+        for (Runnable j : inline)
+            j.run();
 
         // TODO start tasks that perform default initialization of fields not obtained from file
     }
@@ -178,9 +305,17 @@ public final class ParParser extends Parser {
     public void awaitResults() {
         // await read jobs and throw error if any occurred
         try {
-            barrier.acquire(jobs.size());
+            cancellation.acquire(barrier, jobs.size());
         } catch (InterruptedException e) {
             throw new OGSSException("internal error: unexpected foreign exception", e);
+        } catch (OGSSException e) {
+            // the state will not be created, hence nobody else can close the file
+            try {
+                input.close();
+            } catch (IOException ex) {
+                e.addSuppressed(ex);
+            }
+            throw e;
         }
         if (null != readErrors)
             throw readErrors;
@@ -188,41 +323,62 @@ public final class ParParser extends Parser {
 
     private final class ReadTask implements Runnable {
         private final FieldDeclaration<?, ?> f;
-        private final MappedInStream in;
+        private final MappedInStream map;
+        private final Codec codec;
+        private final int fieldBlock;
+        private final long checksum;
 
-        ReadTask(FieldDeclaration<?, ?> f, MappedInStream in) {
+        ReadTask(FieldDeclaration<?, ?> f, MappedInStream map, Codec codec, int fieldBlock, long checksum) {
             this.f = f;
-            this.in = in;
+            this.map = map;
+            this.codec = codec;
+            this.fieldBlock = fieldBlock;
+            this.checksum = checksum;
         }
 
         @Override
         public void run() {
-            if (in.eof()) {
-                // TODO default initialization; this is a nop for now in Java
-                barrier.release();
-                return;
-            }
-            final int block = f.owner.cachedSize > FieldDeclaration.FD_Threshold ? in.v32() : 0;
-
             OGSSException ex = null;
-            final Pool<?> owner = f.owner;
-            final int bpo = owner.bpo;
-            final int first = block * FieldDeclaration.FD_Threshold;
-            final int last = Math.min(owner.cachedSize, first + FieldDeclaration.FD_Threshold);
+            int first = 0, last = 0;
+            MappedInStream in = map;
+            boolean parts = false;
             try {
-                f.read(bpo + first, bpo + last, in);
+                if (cancellation.isCancelled())
+                    return;
+                // @note checksums are verified by jobs to verify entries in parallel
+                verify(map, checksum);
+                if (map.eof()) {
+                    // TODO default initialization; this is a nop for now in Java
+                    return;
+                }
 
-                if (!in.eof() && !(f instanceof LazyField<?, ?>))
-                    ex = new PoolSizeMissmatchError(in.position(), bpo + first, bpo + last, f);
+                final long range = range(f, map, fieldBlock);
+                first = (int) (range >>> 32);
+                last = (int) range;
+                // @note decompression is part of the job to perform it in parallel
+                in = decompress(codec, map);
+                if (lazy(f)) {
+                    f.defer(first, last, in);
+                    return;
+                }
+                if (last - first >= 2 * SPLIT_LIMIT && f instanceof KnownField
+                        && (parts = split(f, first, last, in)))
+                    return;
+                f.read(first, last, in);
+
+                if (!in.eof())
+                    ex = new PoolSizeMissmatchError(in.position(), first, last, f);
 
             } catch (BufferUnderflowException e) {
-                ex = new PoolSizeMissmatchError(bpo + first, bpo + last, f, e);
+                ex = new PoolSizeMissmatchError(first, last, f, e);
             } catch (OGSSException t) {
                 ex = t;
             } catch (Throwable t) {
                 ex = new OGSSException("internal error: unexpected foreign exception", t);
             } finally {
-                barrier.release();
+                // @note the permit of a split block is released by its last part
+                if (!parts)
+                    barrier.release();
                 if (null != ex)
                     synchronized (fields) {
                         if (null == readErrors)
@@ -234,6 +390,93 @@ public final class ParParser extends Parser {
         }
     }
 
+    /**
+     * Split a large block into parts, if it can be indexed. The first part is read by the calling read task.
+     *
+     * @note known fields store values in their objects, hence parts can be read concurrently
+     * @return true, iff the block is read by parts
+     */
+    private boolean split(FieldDeclaration<?, ?> f, int first, final int last, MappedInStream in) {
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int count = last - first;
+        final int n = Math.min(cores, count / SPLIT_LIMIT);
+        if (n < 2)
+            return false;
+
+        // @note bool parts have to start at a byte boundary
+        final int step = (((count - 1) / n + 1) + 7) & ~7;
+        final ByteBuffer data = in.asByteBuffer();
+        final int[] offsets = OffsetIndex.offsets(f.type, data, count, step);
+        if (null == offsets)
+            return false;
+
+        final AtomicInteger pending = new AtomicInteger(offsets.length);
+        for (int k = offsets.length - 1; k >= 0; k--) {
+            final int end = k + 1 == offsets.length ? data.limit() : offsets[k + 1];
+            final PartTask part = new PartTask(f, first + k * step, Math.min(last, first + (k + 1) * step),
+                    slice(data, offsets[k], end), pending);
+            if (0 == k)
+                part.run();
+            else
+                executor.execute(part);
+        }
+        return true;
+    }
+
+    private static MappedInStream slice(ByteBuffer data, int begin, int end) {
+        final ByteBuffer b = data.duplicate();
+        b.limit(end);
+        b.position(begin);
+        return new MappedInStream(b.slice());
+    }
+
+    /**
+     * Reads a part of a block that has been split by a read task.
+     */
+    private final class PartTask implements Runnable {
+        private final FieldDeclaration<?, ?> f;
+        private final int first;
+        private final int last;
+        private final MappedInStream in;
+        private final AtomicInteger pending;
+
+        PartTask(FieldDeclaration<?, ?> f, int first, int last, MappedInStream in, AtomicInteger pending) {
+            this.f = f;
+            this.first = first;
+            this.last = last;
+            this.in = in;
+            this.pending = pending;
+        }
+
+        @Override
+        public void run() {
+            OGSSException ex = null;
+            try {
+                if (cancellation.isCancelled())
+                    return;
+                f.read(first, last, in);
+                if (!in.eof())
+                    ex = new PoolSizeMissmatchError(in.position(), first, last, f);
+            } catch (BufferUnderflowException e) {
+                ex = new PoolSizeMissmatchError(first, last, f, e);
+            } catch (OGSSException t) {
+                ex = t;
+            } catch (Throwable t) {
+                ex = new OGSSException("internal error: unexpected foreign exception", t);
+            } finally {
+                if (null != ex)
+                    synchronized (fields) {
+                        if (null == readErrors)
+                            readErrors = ex;
+                        else
+                            readErrors.addSuppressed(ex);
+                    }
+                if (0 == pending.decrementAndGet())
+                    barrier.release();
+            }
+        }
+    }
+
     /**
      * A hull read task. Reads H-Data.
      * 
@@ -254,8 +497,10 @@ public final class ParParser extends Parser {
         public void run() {
             OGSSException ex = null;
             try {
-                int i = block * HullType.HD_Threshold;
-                final int end = Math.min(t.idMap.size() - 1, i + HullType.HD_Threshold);
+                if (cancellation.isCancelled())
+                    return;
+                int i = block * t.blockSize;
+                final int end = Math.min(t.idMap.size() - 1, i + t.blockSize);
                 t.read(i, end, in);
             } catch (OGSSException t) {
                 ex = t;
@@ -273,4 +518,37 @@ public final class ParParser extends Parser {
             }
         }
     }
+
+    /**
+     * A string read task. Decodes a block of an HS.
+     */
+    private final class SRT implements Runnable {
+        private final int first;
+        private final int last;
+
+        SRT(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        public void run() {
+            OGSSException ex = null;
+            try {
+                if (!cancellation.isCancelled())
+                    Strings.decode(first, last);
+            } catch (Throwable t) {
+                ex = new OGSSException("internal error: unexpected foreign exception", t);
+            } finally {
+                barrier.release();
+                if (null != ex)
+                    synchronized (fields) {
+                        if (null == readErrors)
+                            readErrors = ex;
+                        else
+                            readErrors.addSuppressed(ex);
+                    }
+            }
+        }
+    }
 }
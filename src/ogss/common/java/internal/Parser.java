@@ -1,19 +1,32 @@
 package ogss.common.java.internal;
 
+import ogss.common.java.api.Cancellation;
+import ogss.common.java.api.Codec;
+import ogss.common.java.api.Mode;
 import ogss.common.java.api.OGSSException;
+import ogss.common.java.api.Projection;
+import ogss.common.java.api.Workers;
 import ogss.common.java.internal.exceptions.ParseException;
 import ogss.common.java.internal.fieldDeclarations.AutoField;
+import ogss.common.java.internal.fieldDeclarations.KnownField;
 import ogss.common.java.internal.fieldTypes.*;
+import ogss.common.java.internal.streams.SegmentedInputStream;
 import ogss.common.java.restrictions.FieldRestriction;
 import ogss.common.java.restrictions.NonNull;
 import ogss.common.java.restrictions.Range;
 import ogss.common.java.restrictions.TypeRestriction;
-import ogss.common.jvm.streams.FileInputStream;
+import ogss.common.jvm.streams.MappedInStream;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.IdentityHashMap;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
 
 /**
  * @author Timm Felden
@@ -23,11 +36,118 @@ abstract class Parser extends StateInitializer {
     /**
      * File size in bytes below which the sequential parser will be used.
      */
-    public static int SEQ_LIMIT = 512000;
+    static final int SEQ_LIMIT = 512000;
+
+    /**
+     * HD entries smaller than this many bytes are read by the parallel parser in the parsing thread, because a job
+     * would cost more than it saves.
+     */
+    static final int INLINE_LIMIT = 1 << 16;
+
+    /**
+     * Pools with less static instances are allocated by the parallel parser in the parsing thread.
+     */
+    static final int INLINE_INSTANCES = 4096;
+
+    /**
+     * Choose the parser for a file. Unless requested otherwise, files are parsed sequentially if parallel parsing
+     * cannot pay off, i.e. if the file is small, if there is only one core or if the executor runs jobs in the calling
+     * thread. Otherwise, the parallel parser decides per pool and per HD entry whether it is worth a job.
+     */
+    static boolean sequential(SegmentedInputStream fs, ActualMode modes, Executor executor) {
+        if (null != modes.parser)
+            return Mode.Sequential == modes.parser;
+
+        return fs.size() < SEQ_LIMIT || Runtime.getRuntime().availableProcessors() < 2
+                || Workers.callerRuns == executor;
+    }
+
+    /**
+     * @return true, iff data of f is read on first access
+     */
+    final boolean lazy(FieldDeclaration<?, ?> f) {
+        if (f instanceof LazyField<?, ?>)
+            return true;
+        // deferred known fields would silently yield defaults, if their accessors do not load them
+        if (f instanceof KnownField && !pb.lazyAccessors())
+            return false;
+        return (modes.lazyFields && f instanceof KnownField)
+                || (null != projection && !projection.contains(f.owner.name, f.name));
+    }
+
+    /**
+     * Data outside of the projection is skipped, unless the state is writable. The data of skipped fields is lost.
+     * 
+     * @param f
+     *            the field or hull of an HD entry
+     * @return true, iff the HD entry of f is not read at all
+     */
+    final boolean skip(Object f) {
+        if (null == projection || modes.write)
+            return false;
+
+        if (f instanceof FieldDeclaration<?, ?>) {
+            final FieldDeclaration<?, ?> fd = (FieldDeclaration<?, ?>) f;
+            return !projection.contains(fd.owner.name, fd.name);
+        }
+        if (f instanceof ContainerType<?>) {
+            if (null == projectedHulls) {
+                projectedHulls = new IdentityHashMap<>();
+                for (Pool<?> p : classes)
+                    for (FieldDeclaration<?, ?> fd : p.dataFields)
+                        if (projection.contains(p.name, fd.name))
+                            projectHull(fd.type);
+            }
+            return !projectedHulls.containsKey(f);
+        }
+        // strings are read lazily anyway
+        return false;
+    }
+
+    // add t and the containers it refers to to the projected hulls
+    private void projectHull(FieldType<?> t) {
+        if (!(t instanceof ContainerType<?>) || projectedHulls.containsKey(t))
+            return;
+
+        projectedHulls.put((ContainerType<?>) t, (ContainerType<?>) t);
+        if (t instanceof MapType<?, ?>) {
+            projectHull(((MapType<?, ?>) t).keyType);
+            projectHull(((MapType<?, ?>) t).valueType);
+        } else {
+            projectHull(((SingleArgumentType<?, ?>) t).base);
+        }
+    }
+
+    /**
+     * Instances of unknown pools are allocated on first access, because applications usually ignore them.
+     */
+    static boolean deferrable(Pool<?> p) {
+        return 0 != p.staticDataInstances && p instanceof SubPool<?> && ((SubPool<?>) p).unknown();
+    }
+
+    /**
+     * @return true, iff field data is read into instances of p while parsing
+     * @note lazy fields are read on first access and materialize their objects themselves
+     */
+    static boolean readsInstances(Pool<?> p) {
+        for (Pool<?> q = p; null != q; q = q.superPool)
+            for (FieldDeclaration<?, ?> f : q.dataFields)
+                if (!(f instanceof LazyField<?, ?>))
+                    return true;
+        return false;
+    }
 
     final protected PoolBuilder pb;
 
-    final FileInputStream in;
+    /**
+     * The file that is being parsed. It is used to map HD entries after parsing the head.
+     */
+    final SegmentedInputStream input;
+
+    /**
+     * The head of the file, i.e. G, S and T.
+     */
+    final MappedInStream in;
 
     /**
      * This buffer provides the association of file fieldID to field.
@@ -42,10 +162,83 @@ abstract class Parser extends StateInitializer {
 
     public OGSSException readErrors;
 
-    Parser(FileInputStream in, PoolBuilder pb) {
-        super(pb);
+    /**
+     * The fieldID of the HD entry that starts an appended segment. The entry holds the number of objects added to each
+     * pool of the file. Field entries of a segment are followed by the index of the pool whose added objects they
+     * contain.
+     */
+    static final int SEGMENT_ID = Integer.MAX_VALUE;
+
+    /**
+     * The fieldID of an HD entry that selects the codec of subsequent entries of its segment. The entry holds the ID of
+     * the codec or 0, if subsequent entries are not compressed.
+     */
+    static final int CODEC_ID = Integer.MAX_VALUE - 1;
+
+    /**
+     * The fieldID of an HD entry that sets the maximum number of values of field and of container blocks of subsequent
+     * entries of its segment. The entry holds both sizes. Without such an entry, blocks have the default sizes
+     * FD_Threshold and HD_Threshold.
+     */
+    static final int BLOCKS_ID = Integer.MAX_VALUE - 2;
+
+    /**
+     * The fieldID of an HD entry that enables checksums of subsequent entries of its segment. The entry holds 1, if
+     * subsequent entries end with the CRC32 of the entry excluding its size, or 0. The checksum is little endian.
+     * Entries with reserved IDs have no checksum.
+     */
+    static final int CHECKSUM_ID = Integer.MAX_VALUE - 3;
+
+    /**
+     * the block sizes of the current segment
+     */
+    int fieldBlock = FieldDeclaration.FD_Threshold, hullBlock = HullType.HD_Threshold;
+
+    /**
+     * the header of the next appended segment; set by processData, if it stopped at a segment
+     */
+    MappedInStream segment;
+
+    /**
+     * Per pool the first index and the number of objects added by the current segment. Null while parsing the initial
+     * segment.
+     */
+    private int[] segmentFirst, segmentSize;
+
+    /**
+     * pools in file order; used to resolve pool indices of segments
+     */
+    private ArrayList<Pool<?>> filePools;
+
+    /**
+     * read options of the state
+     */
+    final ActualMode modes;
+
+    /**
+     * the fields whose data is read or null, if all fields are read
+     */
+    final Projection projection;
+
+    /**
+     * checked between HD entries and by jobs before they start
+     */
+    final Cancellation cancellation;
+
+    /**
+     * the containers required by fields of the projection; created on first use
+     */
+    private IdentityHashMap<ContainerType<?>, ContainerType<?>> projectedHulls;
+
+    Parser(SegmentedInputStream input, PoolBuilder pb, ActualMode modes, Executor executor, Projection projection,
+            Cancellation cancellation) throws IOException {
+        super(pb, executor);
         this.pb = pb;
-        this.in = in;
+        this.modes = modes;
+        this.projection = projection;
+        this.cancellation = cancellation;
+        this.input = input;
+        this.in = input.head();
 
         // G
         {
@@ -72,11 +265,13 @@ abstract class Parser extends StateInitializer {
         // S
         try {
             fields.add(Strings);
-            Strings.readSL(in);
+            Strings.readSL(in, headExecutor());
         } catch (Exception e) {
             throw new ParseException(in, e, "corrupted string block");
         }
 
+        cancellation.check();
+
         // T
         try {
             typeBlock();
@@ -87,9 +282,29 @@ abstract class Parser extends StateInitializer {
         fixContainerMD();
 
         // HD
+        cancellation.check();
+        input.seek(in.position());
         processData();
 
-        if (!in.eof()) {
+        // appended segments
+        while (null != segment) {
+            final MappedInStream s = segment;
+            segment = null;
+            // objects are moved by appendSegment, hence pending reads have to finish
+            awaitResults();
+            codec = null;
+            checksums = false;
+            fieldBlock = FieldDeclaration.FD_Threshold;
+            hullBlock = HullType.HD_Threshold;
+            try {
+                appendSegment(s);
+            } catch (BufferUnderflowException e) {
+                throw new ParseException(s, e, "corrupted segment header");
+            }
+            processData();
+        }
+
+        if (!input.eof()) {
             throw new ParseException(in, null, "Expected end of file, but some bytes remain.");
         }
     }
@@ -722,7 +937,224 @@ abstract class Parser extends StateInitializer {
     }
 
     /**
-     * Jump through HD-entries to create read tasks
+     * @return the executor decoding the head of the file
+     * @note called by the constructor, i.e. fields of subclasses are not initialized
+     */
+    Executor headExecutor() {
+        return executor;
+    }
+
+    /**
+     * Jump through HD-entries to create read tasks. Stops at the end of file or at the start of an appended segment.
+     */
+    abstract void processData() throws IOException;
+
+    /**
+     * Read the codec of a codec entry.
+     */
+    final Codec readCodec(MappedInStream map) {
+        final int id = map.i8();
+        final Codec c = Codec.get(id);
+        if (0 != id && null == c)
+            throw new ParseException(map, null, "Unknown codec %d; codecs have to be registered before reading.", id);
+        return c;
+    }
+
+    /**
+     * Read the block sizes of a blocks entry.
+     */
+    final void readBlocks(MappedInStream map) {
+        final int f = map.v32();
+        final int h = map.v32();
+        if (f <= 0 || h <= 0)
+            throw new ParseException(map, null, "Illegal block sizes %d and %d.", f, h);
+        fieldBlock = f;
+        hullBlock = h;
+    }
+
+    /**
+     * Read the flag of a checksum entry.
+     */
+    final void readChecksums(MappedInStream map) {
+        final int flag = map.i8();
+        if (0 != flag && 1 != flag)
+            throw new ParseException(map, null, "Unknown checksum kind %d.", flag);
+        checksums = 1 == flag;
+    }
+
+    /**
+     * Remove the checksum from the end of an HD entry, if entries of the current segment have one.
+     *
+     * @param start
+     *            the position of the fieldID of the entry
+     * @return the expected checksum and start encoded as (checksum << 32 | start) or -1, if there is no checksum
+     */
+    final long checksum(MappedInStream map, int start) {
+        if (!checksums)
+            return -1L;
+
+        final ByteBuffer b = map.asByteBuffer();
+        final int end = b.limit() - 4;
+        if (end < b.position())
+            throw new ParseException(map, null, "HD entry is too small to hold a checksum.");
+        final int crc = (b.get(end) & 0xFF) | (b.get(end + 1) & 0xFF) << 8 | (b.get(end + 2) & 0xFF) << 16
+                | (b.get(end + 3) & 0xFF) << 24;
+        b.limit(end);
+        return ((long) crc << 32) | start;
+    }
+
+    /**
+     * Verify the checksum of an HD entry. This is a nop for entries without checksum.
+     *
+     * @param checksum
+     *            the result of checksum
+     */
+    static void verify(MappedInStream map, long checksum) {
+        if (-1L == checksum)
+            return;
+
+        final ByteBuffer b = map.asByteBuffer().duplicate();
+        b.position((int) checksum);
+        final CRC32 crc = new CRC32();
+        crc.update(b);
+        if ((int) crc.getValue() != (int) (checksum >>> 32))
+            throw new ParseException(map, null, "Checksum mismatch in HD entry at 0x%X.", (int) checksum);
+    }
+
+    /**
+     * Decompress the remaining data of an HD entry, if the entry has been compressed by codec.
+     *
+     * @return a stream containing the original data
+     */
+    static MappedInStream decompress(Codec codec, MappedInStream map) {
+        if (null == codec)
+            return map;
+
+        final int size = map.v32();
+        final ByteBuffer in = map.asByteBuffer();
+        final byte[] data = new byte[in.remaining()];
+        in.get(data);
+        final byte[] target = new byte[size];
+        try {
+            codec.decompress(data, target);
+        } catch (IOException e) {
+            throw new ParseException(map, e, "Failed to decompress HD entry using %s.", codec);
+        }
+        return new MappedInStream(ByteBuffer.wrap(target));
+    }
+
+    /**
+     * Allocate the objects of an appended segment and move existing objects to their position in the merged type
+     * order. Field data of the segment refers to objects by their merged IDs.
+     */
+    void appendSegment(MappedInStream header) {
+        if (null == filePools) {
+            filePools = new ArrayList<>();
+            for (FieldType<?> t : fdts)
+                if (t instanceof Pool<?>)
+                    filePools.add((Pool<?>) t);
+        }
+
+        final int count = header.v32();
+        if (count != filePools.size())
+            throw new ParseException(header, null, "Appended segment has %d types, but the file has %d.", count,
+                    filePools.size());
+
+        final int[] added = new int[classes.size()];
+        for (Pool<?> p : filePools)
+            added[p.typeID - 10] = header.v32();
+
+        segmentFirst = new int[classes.size()];
+        segmentSize = added;
+
+        for (Pool<?> b : classes) {
+            if (null != b.superPool)
+                continue;
+
+            boolean changed = false;
+            for (Pool<?> p = b; null != p; p = p.next)
+                changed |= 0 != added[p.typeID - 10];
+            if (!changed)
+                continue;
+
+            // lazy data refers to the previous layout
+            for (Pool<?> p = b; null != p; p = p.next)
+                for (FieldDeclaration<?, ?> f : p.dataFields)
+                    f.ensureLoaded();
+
+            Pool.makeRoom(b, added, segmentFirst);
+
+            // allocate added objects only
+            for (Pool<?> p = b; null != p; p = p.next) {
+                final int a = added[p.typeID - 10];
+                if (0 != a) {
+                    final int bpo = p.bpo, size = p.staticDataInstances;
+                    p.bpo = segmentFirst[p.typeID - 10];
+                    p.staticDataInstances = a;
+                    p.allocateInstances();
+                    p.bpo = bpo;
+                    p.staticDataInstances = size;
+                }
+            }
+        }
+    }
+
+    /**
+     * Consume the block ID of an HD entry, and the pool index if it is part of an appended segment.
+     *
+     * @param fieldBlock
+     *            the field block size of the segment of the entry
+     * @note the block size is passed by read jobs, because the parser resets it for the next segment
+     * @return the range of objects of the field data encoded as (first << 32 | last)
      */
-    abstract void processData();
+    final long range(FieldDeclaration<?, ?> f, MappedInStream map, int fieldBlock) {
+        final int first, size;
+        if (null == segmentFirst) {
+            first = f.owner.bpo;
+            size = f.owner.cachedSize;
+        } else {
+            final int index = map.v32();
+            final Pool<?> p = index < filePools.size() ? filePools.get(index) : null;
+            Pool<?> q = p;
+            while (null != q && q.THH > f.owner.THH)
+                q = q.superPool;
+            if (q != f.owner)
+                throw new ParseException(map, null, "Field %s.%s has data for invalid type %d.", f.owner.name, f.name,
+                        index);
+            first = segmentFirst[p.typeID - 10];
+            size = segmentSize[p.typeID - 10];
+        }
+        final int block = size > fieldBlock ? map.v32() : 0;
+        final int i = first + block * fieldBlock;
+        return ((long) i << 32) | Math.min(first + size, i + fieldBlock);
+    }
+
+    /**
+     * @return the file field ID of each field and container; -1 if it is not part of the file
+     */
+    final int[] fileFieldIDs() {
+        final int[] r = new int[nextFieldID];
+        Arrays.fill(r, -1);
+        for (int i = 0; i < fields.size(); i++) {
+            final Object f = fields.get(i);
+            if (f instanceof FieldDeclaration<?, ?>)
+                r[((FieldDeclaration<?, ?>) f).id] = i;
+            else if (f instanceof ContainerType<?>)
+                r[((ContainerType<?>) f).fieldID] = i;
+        }
+        return r;
+    }
+
+    /**
+     * @return the index into the pools of the file of each pool; -1 if it is not part of the file
+     */
+    final int[] filePoolIDs() {
+        final int[] r = new int[classes.size()];
+        Arrays.fill(r, -1);
+        int i = 0;
+        for (FieldType<?> t : fdts)
+            if (t instanceof Pool<?>)
+                r[t.typeID - 10] = i++;
+        return r;
+    }
 }
@@ -202,7 +202,88 @@ public abstract class Pool<T extends Obj> extends ByRefType<T>
       this.newObjects = new ArrayList<>();
    }
 
-   protected abstract void allocateInstances();
+   /**
+    * Allocate all static instances of this pool, i.e. the instances with
+    * indices in [bpo, bpo + staticDataInstances) of data.
+    * 
+    * @note generated pools implement allocateInstances(int, int) instead;
+    *       bindings that override this method are allocated by a single job
+    */
+   protected void allocateInstances() {
+      if (!allocateInstances(bpo, bpo + staticDataInstances))
+         throw new OGSSException("pool " + name + " cannot allocate its instances");
+   }
+
+   /**
+    * Allocate the static instances with indices in [i, h) of data. The
+    * instance at index i has the ID i + 1. Ranges of a pool are allocated
+    * concurrently, allowing several jobs to allocate the instances of a large
+    * pool, hence an implementation must not write data outside of [i, h).
+    * Generated pools implement this method as
+    * 
+    * <pre>
+    * int j;
+    * while (i &lt; h) {
+    *    data[i] = new T(j = (i + 1));
+    *    i = j;
+    * }
+    * return true;
+    * </pre>
+    * 
+    * @return false, iff the pool cannot allocate ranges; in this case,
+    *         nothing has been allocated
+    * @note the default implementation cannot allocate ranges; it exists for
+    *       bindings that override allocateInstances() only
+    */
+   protected boolean allocateInstances(int i, int h) {
+      return false;
+   }
+
+   /**
+    * true, iff the static instances of this pool have not been allocated yet;
+    * set by parsers for pools whose objects are not required to read a file
+    */
+   volatile boolean deferred;
+
+   /**
+    * Allocate static instances, if their allocation has been deferred.
+    * 
+    * @note can be called concurrently
+    */
+   final void materialize() {
+      if (deferred) {
+         synchronized (this) {
+            if (deferred) {
+               allocateInstances();
+               deferred = false;
+            }
+         }
+      }
+   }
+
+   /**
+    * Materialize this pool and all of its sub pools.
+    */
+   final void materializeAll() {
+      for (Pool<?> p = this; null != p
+            && (this == p || THH < p.THH); p = p.next)
+         p.materialize();
+   }
+
+   /**
+    * Materialize the pool owning the argument index of data.
+    * 
+    * @return the object at index
+    */
+   private Obj materialize(int index) {
+      for (Pool<?> p = basePool; null != p; p = p.next) {
+         if (p.bpo <= index && index < p.bpo + p.staticDataInstances) {
+            p.materialize();
+            break;
+         }
+      }
+      return data[index];
+   }
 
    /**
     * Return an object by ID. Can only be used for objects with positive IDs.
@@ -226,7 +307,8 @@ public abstract class Pool<T extends Obj> extends ByRefType<T>
       int index = ID - 1;
       if (null == data || (index < 0 | data.length <= index))
          return null;
-      return (T) data[index];
+      final Obj r = data[index];
+      return (T) (null != r ? r : materialize(index));
    }
 
    @SuppressWarnings("unchecked")
@@ -235,7 +317,8 @@ public abstract class Pool<T extends Obj> extends ByRefType<T>
       int index = in.v32() - 1;
       if (index < 0 | data.length <= index)
          return null;
-      return (T) data[index];
+      final Obj r = data[index];
+      return (T) (null != r ? r : materialize(index));
    }
 
    @Override
@@ -275,6 +358,38 @@ public abstract class Pool<T extends Obj> extends ByRefType<T>
       return rval;
    }
 
+   /**
+    * True, iff objects of this type hierarchy that are part of the file at
+    * path may have been modified since the file has been read or written.
+    * 
+    * @note only maintained by base pools
+    */
+   boolean modified;
+
+   /**
+    * Report the modification of an object of this pool that is part of the
+    * file, i.e. of an object with a positive ID. A flush in append mode
+    * rewrites the file instead, because the file does not reflect the
+    * modification.
+    * 
+    * @note pools that track modifications have to call this from every
+    *       setter of their objects, including generated ones
+    */
+   public final void modified() {
+      basePool.modified = true;
+   }
+
+   /**
+    * @return true, iff every setter of objects of this pool calls modified();
+    *         objects of pools that do not track modifications may have been
+    *         modified at any time, hence their file cannot be appended to
+    * @note the default implementation assumes generated setters that do not
+    *       report modifications
+    */
+   protected boolean tracksModifications() {
+      return false;
+   }
+
    /**
     * Add an existing instance as a new object
     * 
@@ -289,6 +404,51 @@ public abstract class Pool<T extends Obj> extends ByRefType<T>
       return newObjects.add(e);
    }
 
+   /**
+    * Move the objects of a type hierarchy to make room for objects added by
+    * an appended segment. Added objects follow the objects of their pool, i.e.
+    * objects of sub pools change their IDs. Afterwards, the caller has to store
+    * the added objects of a pool p at [first[p], first[p] + added[p]) of data.
+    * 
+    * @note indices are typeID - 10
+    * @note the hierarchy must neither contain deleted nor new objects
+    */
+   static void makeRoom(Pool<?> base, int[] added, int[] first) {
+      final ArrayList<Pool<?>> ps = new ArrayList<>();
+      int size = 0;
+      for (Pool<?> p = base; null != p; p = p.next) {
+         p.materialize();
+         ps.add(p);
+         size += p.staticDataInstances + added[p.typeID - 10];
+      }
+
+      final Obj[] old = base.data;
+      final Obj[] d = new Obj[size];
+      int next = 0;
+      for (Pool<?> p : ps) {
+         final int s = p.staticDataInstances;
+         if (0 != s) {
+            System.arraycopy(old, p.bpo, d, next, s);
+            if (next != p.bpo) {
+               for (int i = next, h = next + s; i < h; i++)
+                  d[i].ID = i + 1;
+            }
+         }
+         p.data = d;
+         p.bpo = next;
+         first[p.typeID - 10] = next + s;
+         p.staticDataInstances = s + added[p.typeID - 10];
+         p.cachedSize = p.staticDataInstances;
+         next += p.staticDataInstances;
+      }
+
+      // propagate sizes in reverse order
+      for (int i = ps.size() - 1; i > 0; i--) {
+         final Pool<?> p = ps.get(i);
+         p.superPool.cachedSize += p.cachedSize;
+      }
+   }
+
    /**
     * Delete shall only be called from OGSS state
     * 
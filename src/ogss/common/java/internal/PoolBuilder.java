@@ -48,4 +48,12 @@ public abstract class PoolBuilder {
      * @return values of known enums in ascending order
      */
     protected abstract Enum<?>[] enumMake(int id);
+
+    /**
+     * @return true, iff accessors of known fields call FieldDeclaration.ensureLoaded; otherwise, data of known fields
+     *         is always read while opening the file
+     */
+    protected boolean lazyAccessors() {
+        return false;
+    }
 }
@@ -1,11 +1,16 @@
 package ogss.common.java.internal;
 
+import java.io.IOException;
 import java.nio.BufferUnderflowException;
 import java.util.ArrayList;
+import java.util.concurrent.Executor;
 
+import ogss.common.java.api.Cancellation;
 import ogss.common.java.api.OGSSException;
+import ogss.common.java.api.Projection;
+import ogss.common.java.api.Workers;
 import ogss.common.java.internal.exceptions.PoolSizeMissmatchError;
-import ogss.common.jvm.streams.FileInputStream;
+import ogss.common.java.internal.streams.SegmentedInputStream;
 import ogss.common.jvm.streams.MappedInStream;
 
 /**
@@ -15,8 +20,17 @@ import ogss.common.jvm.streams.MappedInStream;
  */
 public final class SeqParser extends Parser {
 
-    SeqParser(FileInputStream in, PoolBuilder pb) {
-        super(in, pb);
+    SeqParser(SegmentedInputStream input, PoolBuilder pb, ActualMode modes, Executor executor,
+            Projection projection, Cancellation cancellation) throws IOException {
+        super(input, pb, modes, executor, projection, cancellation);
+    }
+
+    /**
+     * The file is parsed in the calling thread, hence parsing never waits for jobs.
+     */
+    @Override
+    final Executor headExecutor() {
+        return Workers.callerRuns;
     }
 
     /**
@@ -60,7 +74,9 @@ public final class SeqParser extends Parser {
                         d = new Obj[p.cachedSize];
                     }
                     p.data = d;
-                    if (0 != p.staticDataInstances) {
+                    if (deferrable(p)) {
+                        p.deferred = true;
+                    } else if (0 != p.staticDataInstances) {
                         p.allocateInstances();
                     }
                 }
@@ -83,52 +99,88 @@ public final class SeqParser extends Parser {
         for (Pool<?> p : classes) {
             readFields(p);
         }
+
+        // allocate deferred instances that are required to read field data
+        for (Pool<?> p : classes) {
+            if (p.deferred && readsInstances(p))
+                p.materialize();
+        }
     }
 
     /**
      * Jump through HD-entries to create read tasks
      */
     @Override
-    final void processData() {
+    final void processData() throws IOException {
 
         // we expect one HD-entry per field
         final ArrayList<Job> jobs = new ArrayList<>(fields.size());
 
-        while (!in.eof()) {
+        while (!input.eof()) {
+            cancellation.check();
+
             // create the map directly and use it for subsequent read-operations to avoid costly position and size
             // readjustments
-            final MappedInStream map = in.map(in.v32() + 2);
+            final MappedInStream map = input.nextBlock();
 
+            final int start = map.asByteBuffer().position();
             final int id = map.v32();
+            if (SEGMENT_ID == id) {
+                segment = map;
+                break;
+            }
+            if (CODEC_ID == id) {
+                codec = readCodec(map);
+                continue;
+            }
+            if (BLOCKS_ID == id) {
+                readBlocks(map);
+                continue;
+            }
+            if (CHECKSUM_ID == id) {
+                readChecksums(map);
+                continue;
+            }
             final Object f = fields.get(id);
+            if (skip(f))
+                continue;
+            verify(map, checksum(map, start));
 
             // TODO add a countermeasure against duplicate buckets / fieldIDs
 
             if (f instanceof HullType<?>) {
                 final int count = map.v32();
                 final HullType<?> p = (HullType<?>) f;
+                final MappedInStream data = decompress(codec, map);
+                p.blockSize = hullBlock;
 
                 // start hull allocation job
-                int block = p.allocateInstances(count, map);
+                int block = p.allocateInstances(count, data);
 
                 // create hull read data task except for StringPool which is still lazy per element and eager per offset
                 if (p instanceof ContainerType<?>) {
-                    jobs.add(new HRT((ContainerType<?>) p, block, map));
+                    jobs.add(new HRT((ContainerType<?>) p, block, data));
+                } else if (modes.eagerStrings) {
+                    // @note files read sequentially are small, hence the hull is decoded in a single job
+                    final int last = Strings.idMap.size();
+                    jobs.add(new SRT(last - count, last));
                 }
 
             } else {
                 final FieldDeclaration<?, ?> fd = (FieldDeclaration<?, ?>) f;
-                int block = fd.owner.cachedSize > FieldDeclaration.FD_Threshold ? map.v32() : 0;
+                final long range = range(fd, map, fieldBlock);
 
                 // create job with adjusted size that corresponds to the * in the specification (i.e. exactly the data)
-                jobs.add(new ReadTask(block, fd, map));
+                jobs.add(new ReadTask((int) (range >>> 32), (int) range, fd, decompress(codec, map)));
             }
         }
 
         // perform read tasks
         try {
-            for (Job j : jobs)
+            for (Job j : jobs) {
+                cancellation.check();
                 j.run();
+            }
         } catch (OGSSException t) {
             throw t;
         } catch (Throwable t) {
@@ -148,30 +200,33 @@ public final class SeqParser extends Parser {
     }
 
     private final class ReadTask extends Job {
-        private final int block;
+        private final int first;
+        private final int last;
         private final FieldDeclaration<?, ?> f;
         private final MappedInStream in;
 
-        ReadTask(int block, FieldDeclaration<?, ?> f, MappedInStream in) {
-            this.block = block;
+        ReadTask(int first, int last, FieldDeclaration<?, ?> f, MappedInStream in) {
+            this.first = first;
+            this.last = last;
             this.f = f;
             this.in = in;
         }
 
         @Override
         void run() {
-            final Pool<?> owner = f.owner;
-            final int bpo = owner.bpo;
-            final int first = block * FieldDeclaration.FD_Threshold;
-            final int last = Math.min(owner.cachedSize, first + FieldDeclaration.FD_Threshold);
             try {
-                f.read(bpo + first, bpo + last, in);
+                if (lazy(f)) {
+                    f.defer(first, last, in);
+                    return;
+                }
 
-                if (!in.eof() && !(f instanceof LazyField<?, ?>))
-                    throw new PoolSizeMissmatchError(in.position(), bpo + first, bpo + last, f);
+                f.read(first, last, in);
+
+                if (!in.eof())
+                    throw new PoolSizeMissmatchError(in.position(), first, last, f);
 
             } catch (BufferUnderflowException e) {
-                throw new PoolSizeMissmatchError(bpo + first, bpo + last, f, e);
+                throw new PoolSizeMissmatchError(first, last, f, e);
             }
         }
     }
@@ -190,8 +245,8 @@ public final class SeqParser extends Parser {
         @Override
         void run() {
             try {
-                int i = block * HullType.HD_Threshold;
-                final int end = Math.min(t.idMap.size() - 1, i + HullType.HD_Threshold);
+                int i = block * t.blockSize;
+                final int end = Math.min(t.idMap.size() - 1, i + t.blockSize);
                 t.read(i, end, map);
             } catch (OGSSException t) {
                 throw t;
@@ -200,4 +255,19 @@ public final class SeqParser extends Parser {
             }
         }
     }
+
+    private final class SRT extends Job {
+        private final int first;
+        private final int last;
+
+        SRT(int first, int last) {
+            this.first = first;
+            this.last = last;
+        }
+
+        @Override
+        void run() {
+            Strings.decode(first, last);
+        }
+    }
 }
@@ -1,20 +1,26 @@
 package ogss.common.java.internal;
 
 import ogss.common.java.api.Access;
+import ogss.common.java.api.Cancellation;
+import ogss.common.java.api.Codec;
+import ogss.common.java.api.Durability;
 import ogss.common.java.api.GeneralAccess;
 import ogss.common.java.api.Mode;
 import ogss.common.java.api.OGSSException;
-import ogss.common.jvm.streams.FileInputStream;
-import ogss.common.jvm.streams.FileOutputStream;
+import ogss.common.java.internal.streams.BufferPool;
+import ogss.common.java.internal.streams.GatheringOutputStream;
+import ogss.common.java.internal.streams.SegmentedInputStream;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Executor;
 
 /**
  * Implementation common to all OGSS states independent of type declarations.
@@ -24,24 +30,47 @@ import java.util.concurrent.TimeUnit;
 public abstract class State implements AutoCloseable {
 
    /**
-    * This pool is used for all asynchronous (de)serialization operations.
+    * the guard of the file must not contain \0-characters.
     */
-   static ThreadPoolExecutor pool = new ThreadPoolExecutor(Runtime.getRuntime().availableProcessors(),
-         Runtime.getRuntime().availableProcessors(), 0L, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
-         new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable r) {
-               final Thread t = new Thread(r);
-               t.setDaemon(true);
-               t.setName("OGSSWorker");
-               return t;
-            }
-         });
+   public String guard;
 
    /**
-    * the guard of the file must not contain \0-characters.
+    * The number of bytes collected by flush before they are written using a
+    * single gathering write.
     */
-   public String guard;
+   public int flushChunkSize = GatheringOutputStream.DEFAULT_CHUNK_SIZE;
+
+   /**
+    * The codec used by flush to compress HD entries; null, if entries are
+    * written uncompressed. States read from a file keep the codec of the file.
+    */
+   public Codec codec;
+
+   /**
+    * The maximum number of objects per HD entry of a field written by flush.
+    * Smaller blocks allow more threads to write and read a field. 0 chooses
+    * the size from the number of objects and cores.
+    */
+   public int fieldBlockSize = FieldDeclaration.FD_Threshold;
+
+   /**
+    * The maximum number of containers per HD entry of a container type
+    * written by flush. 0 chooses the size from the number of objects and
+    * cores.
+    */
+   public int hullBlockSize = HullType.HD_Threshold;
+
+   /**
+    * If true, flush appends a checksum to each HD entry. Checksums of a file
+    * are verified by the jobs reading its entries.
+    */
+   public boolean checksums;
+
+   /**
+    * The executor running asynchronous (de)serialization jobs of this state.
+    * Flush uses the executor set at the time of the call.
+    */
+   public Executor executor;
 
    // types by OGSS name
    private HashMap<String, FieldType<?>> TBN;
@@ -84,6 +113,18 @@ public abstract class State implements AutoCloseable {
     * True iff the state can perform write operations.
     */
    private boolean canWrite;
+   /**
+    * True iff flush shall append new objects to the file.
+    */
+   private boolean append;
+   /**
+    * The file field ID of each field and container and the file type index of
+    * each pool in the file at path; -1 for entities that are not in the file.
+    * 
+    * @note null, if the type system of path is unknown, i.e. if append is not
+    *       possible
+    */
+   int[] fileFieldIDs, filePoolIDs;
    /**
     * path that will be targeted as binary file
     */
@@ -93,7 +134,7 @@ public abstract class State implements AutoCloseable {
     * 
     * @note this is a consequence of the retarded windows file system
     */
-   private FileInputStream input;
+   private SegmentedInputStream input;
 
    final StringPool strings;
 
@@ -139,9 +180,17 @@ public abstract class State implements AutoCloseable {
       this.strings = init.Strings;
       this.path = init.path;
       this.input = init instanceof Parser
-            ? ((Parser) init).in
+            ? ((Parser) init).input
             : null;
       this.canWrite = init.canWrite;
+      this.append = init.append;
+      this.codec = init.codec;
+      this.checksums = init.checksums;
+      this.executor = init.executor;
+      if (init instanceof Parser) {
+         fileFieldIDs = ((Parser) init).fileFieldIDs();
+         filePoolIDs = ((Parser) init).filePoolIDs();
+      }
       this.SIFA = init.SIFA;
       this.classes = init.classes.toArray(new Pool[init.classes.size()]);
       this.containers = init.containers.toArray(new ContainerType[init.containers.size()]);
@@ -197,6 +246,8 @@ public abstract class State implements AutoCloseable {
    final public void changePath(Path path) {
       this.canWrite = true;
       this.path = path;
+      fileFieldIDs = null;
+      filePoolIDs = null;
    }
 
    /**
@@ -214,7 +265,8 @@ public abstract class State implements AutoCloseable {
       if (!canWrite)
          throw new IllegalArgumentException("Cannot change from read only, to a write mode.");
 
-      this.canWrite = Mode.Write == writeMode;
+      this.canWrite = Mode.Write == writeMode || Mode.Append == writeMode;
+      this.append = Mode.Append == writeMode;
       return;
    }
 
@@ -229,8 +281,7 @@ public abstract class State implements AutoCloseable {
       // ensure that lazy fields have been loaded
       for (Pool<?> p : classes)
          for (FieldDeclaration<?, ?> f : p.dataFields)
-            if (f instanceof LazyField<?, ?>)
-               ((LazyField<?, ?>) f).ensureLoaded();
+            f.ensureLoaded();
 
       // all strings have been loaded by now
       strings.dropRB();
@@ -291,15 +342,77 @@ public abstract class State implements AutoCloseable {
    /**
     * Check consistency and write changes to disk.
     * 
-    * @note this will not sync the file to disk, but it will block until all in-memory changes are written to buffers.
+    * @note this will sync file content, but not its metadata, to disk
     * @throws OGSSException if check fails
     */
    public void flush() throws OGSSException {
+      flush(Durability.DataSync);
+   }
+
+   /**
+    * Check consistency and write changes to disk.
+    * 
+    * @param durability
+    *           the sync performed before returning
+    * @throws OGSSException if check fails
+    * @note in append mode, objects created since the last flush are appended
+    *       to the file, if no other changes have to be written; otherwise,
+    *       the file is rewritten
+    */
+   public void flush(Durability durability) throws OGSSException {
+      flush(durability, Cancellation.none);
+   }
+
+   /**
+    * Check consistency and write changes to disk unless cancellation is
+    * cancelled before the write has been completed. A cancelled flush leaves
+    * the file unchanged.
+    * 
+    * @param cancellation
+    *           observed by the writer and its jobs
+    * @throws OGSSException if check fails or cancellation has been cancelled
+    * @note a cancellable flush writes a sibling and replaces the file
+    *       afterwards
+    * @note appending cannot be cancelled after objects of the state have been
+    *       moved to their position in the file
+    */
+   public void flush(Durability durability, Cancellation cancellation) throws OGSSException {
+      cancellation.check();
       if (!canWrite)
          throw new OGSSException("Cannot flush a read only file. Note: close will turn a file into read only.");
+      if (null == path)
+         throw new OGSSException("Cannot flush a state without path. Note: use changePath or write.");
+      if (append && canAppend()) {
+         cancellation.check();
+         append(durability, cancellation);
+         unmodified();
+         return;
+      }
       try {
          loadLazyData();
-         new Writer(this, new FileOutputStream(path));
+         // @note views on strings of the file read its mapping, hence the file is
+         // replaced rather than overwritten, if views may exist
+         if (Durability.FullSync == durability || Cancellation.none != cancellation || strings.hullViews) {
+            // write a sibling and replace the target afterwards
+            // @note the sibling has a unique name on the file system of the target
+            final Path dir = path.toAbsolutePath().getParent();
+            final Path tmp = Files.createTempFile(dir, path.getFileName().toString(), ".tmp");
+            try {
+               keepPermissions(tmp);
+               new Writer(this, new GatheringOutputStream(tmp, flushChunkSize, BufferPool.shared, durability),
+                     cancellation);
+               Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+               Files.deleteIfExists(tmp);
+            }
+            if (Durability.FullSync == durability)
+               syncDirectory();
+            // existing views keep the replaced file; the hulls have been dropped
+            strings.hullViews = false;
+         } else {
+            new Writer(this, new GatheringOutputStream(path, flushChunkSize, BufferPool.shared, durability));
+         }
+         unmodified();
          return;
       } catch (OGSSException e) {
          throw e;
@@ -310,14 +423,147 @@ public abstract class State implements AutoCloseable {
       }
    }
 
+   /**
+    * Give a sibling that replaces path the permissions of path. Temporary
+    * files are accessible by their owner only.
+    */
+   private void keepPermissions(Path sibling) throws IOException {
+      if (!Files.exists(path))
+         return;
+      try {
+         Files.setPosixFilePermissions(sibling, Files.getPosixFilePermissions(path));
+      } catch (UnsupportedOperationException e) {
+         // the file system does not support POSIX permissions
+      }
+   }
+
+   /**
+    * Write the state to an arbitrary stream, e.g. to memory. Neither path nor
+    * mode are changed and out is not closed.
+    * 
+    * @note a subsequent flush to path writes the file as a whole
+    */
+   public void write(OutputStream out) throws OGSSException {
+      try {
+         loadLazyData();
+         new Writer(this, new GatheringOutputStream(out, flushChunkSize, BufferPool.shared));
+      } catch (OGSSException e) {
+         throw e;
+      } catch (IOException e) {
+         throw new OGSSException("failed to complete out stream", e);
+      } catch (Exception e) {
+         throw new OGSSException("unexpected exception", e);
+      } finally {
+         // the file at path does not reflect the written type system and object IDs
+         fileFieldIDs = null;
+         filePoolIDs = null;
+      }
+   }
+
+   /**
+    * @return true iff all changes can be expressed as appended segment, i.e.
+    *         objects have neither been deleted nor use types, fields or
+    *         containers that are not part of the file, and objects in the file
+    *         have not been modified
+    * @note objects in the file count as modified unless their pools track
+    *       modifications; containers of objects in the file can be modified in
+    *       place, hence such objects must not have container fields
+    */
+   private boolean canAppend() {
+      if (null == fileFieldIDs || !Files.exists(path))
+         return false;
+
+      for (Pool<?> p : classes) {
+         if (0 != p.deletedCount)
+            return false;
+
+         if (0 != p.staticDataInstances) {
+            if (p.basePool.modified)
+               return false;
+            for (Pool<?> s = p; null != s; s = s.superPool) {
+               if (!s.tracksModifications())
+                  return false;
+               for (FieldDeclaration<?, ?> f : s.dataFields)
+                  if (f.type instanceof ContainerType<?>)
+                     return false;
+            }
+         }
+
+         // @note anyRefs and the segment header use type indices of the state,
+         // hence every pool has to be in the file at the same index
+         if (p.typeID - 10 != filePoolIDs[p.typeID - 10])
+            return false;
+
+         if (!p.newObjects.isEmpty()) {
+            for (Pool<?> s = p; null != s; s = s.superPool)
+               for (FieldDeclaration<?, ?> f : s.dataFields)
+                  if (f.id >= fileFieldIDs.length || -1 == fileFieldIDs[f.id] || f.type instanceof ContainerType<?>)
+                     return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Append objects created since the last flush to the file.
+    * 
+    * @note the write does not replace the file, hence FullSync forces data and
+    *       metadata to disk, but it is not atomic
+    */
+   private void append(Durability durability, Cancellation cancellation) {
+      try {
+         Writer.append(this,
+               new GatheringOutputStream(path, flushChunkSize, BufferPool.shared, durability, true), cancellation);
+      } catch (OGSSException e) {
+         throw e;
+      } catch (IOException e) {
+         throw new OGSSException("failed to create or complete out stream", e);
+      } catch (Exception e) {
+         throw new OGSSException("unexpected exception", e);
+      }
+   }
+
+   /**
+    * Mark all objects as unmodified after the file at path has been written.
+    */
+   private void unmodified() {
+      for (Pool<?> p : classes)
+         p.modified = false;
+   }
+
+   /**
+    * Sync the directory containing path to make a preceding rename durable.
+    */
+   private void syncDirectory() {
+      final Path dir = path.toAbsolutePath().getParent();
+      if (null == dir)
+         return;
+      try (FileChannel d = FileChannel.open(dir, StandardOpenOption.READ)) {
+         d.force(true);
+      } catch (IOException e) {
+         // some platforms, most notably Windows, cannot sync directories
+      }
+   }
+
    /**
     * Same as flush, but will also sync and close file, thus the state must not be used afterwards.
     */
    @Override
    public void close() throws OGSSException {
+      close(Durability.DataSync);
+   }
+
+   /**
+    * Same as flush, but will also close file, thus the state must not be
+    * used afterwards.
+    * 
+    * @param durability
+    *           the sync performed by the final flush
+    */
+   public void close(Durability durability) throws OGSSException {
       // flush if required
       if (canWrite) {
-         flush();
+         flush(durability);
          this.canWrite = false;
       }
 
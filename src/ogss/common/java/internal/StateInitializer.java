@@ -1,14 +1,25 @@
 package ogss.common.java.internal;
 
+import ogss.common.java.api.Cancellation;
+import ogss.common.java.api.Codec;
 import ogss.common.java.api.Mode;
 import ogss.common.java.api.OGSSException;
+import ogss.common.java.api.Projection;
+import ogss.common.java.api.Workers;
 import ogss.common.java.internal.fieldTypes.*;
-import ogss.common.jvm.streams.FileInputStream;
+import ogss.common.java.internal.streams.SegmentedInputStream;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
 
 /**
  * Initializes a state. One of Creator, Parser, SequentialParser.
@@ -18,32 +29,168 @@ import java.util.ArrayList;
 public abstract class StateInitializer {
 
     public static StateInitializer make(Path path, PoolBuilder pb, Mode... mode) throws IOException {
+        return make(path, pb, Workers.shared, mode);
+    }
+
+    /**
+     * @param executor
+     *            runs the asynchronous jobs of parsing and of subsequent flushes of the state
+     */
+    public static StateInitializer make(Path path, PoolBuilder pb, Executor executor, Mode... mode)
+            throws IOException {
+        return make(path, pb, executor, null, mode);
+    }
+
+    /**
+     * Read the data of the fields selected by projection only.
+     */
+    public static StateInitializer make(Path path, PoolBuilder pb, Projection projection, Mode... mode)
+            throws IOException {
+        return make(path, pb, Workers.shared, projection, mode);
+    }
+
+    /**
+     * @param projection
+     *            the fields whose data is read; null, if all fields are read
+     */
+    public static StateInitializer make(Path path, PoolBuilder pb, Executor executor, Projection projection,
+            Mode... mode) throws IOException {
+        return make(path, pb, executor, projection, Cancellation.none, mode);
+    }
+
+    /**
+     * Open a file unless cancellation is cancelled before the file has been parsed. Jobs of a cancelled parse that did
+     * not start yet are skipped and the file is closed.
+     * 
+     * @param cancellation
+     *            observed by the parser and by awaitResults
+     * @throws OGSSException
+     *             if cancellation has been cancelled
+     */
+    public static StateInitializer make(Path path, PoolBuilder pb, Executor executor, Projection projection,
+            Cancellation cancellation, Mode... mode) throws IOException {
         final StateInitializer init;
         ActualMode modes = new ActualMode(mode);
         if (modes.create)
-            init = new Creator(pb);
+            init = new Creator(pb, executor);
         else {
-            FileInputStream fs = FileInputStream.open(path);
+            cancellation.check();
+            final SegmentedInputStream fs = SegmentedInputStream.open(path);
             try {
-                if (fs.size() < Parser.SEQ_LIMIT)
-                    init = new SeqParser(fs, pb);
-                else
-                    init = new ParParser(fs, pb);
-            } catch (BufferUnderflowException e) {
-                throw new OGSSException("unexpected EOF", e);
+                init = parse(fs, pb, modes, executor, projection, cancellation);
+            } catch (RuntimeException e) {
+                // @note pending jobs keep their mapped buffers until they are collected
+                fs.close();
+                throw e;
             }
         }
         init.path = path;
         init.canWrite = modes.write;
+        init.append = modes.append;
         return init;
     }
 
+    /**
+     * Open many files concurrently. Each file is parsed sequentially by a job of executor, hence the throughput of
+     * opening many small files scales with the number of workers.
+     * 
+     * @return a service yielding one initializer per path in the order in which their files have been parsed; errors
+     *         are reported by the respective futures
+     * @throws IOException
+     *             if modes are contradictory or request parallel parsing
+     * @note pb is shared by all parses
+     * @note the states use executor for subsequent flushes
+     */
+    public static CompletionService<StateInitializer> makeAll(Iterable<Path> paths, final PoolBuilder pb,
+            final Executor executor, Mode... mode) throws IOException {
+        final Mode[] modes = Arrays.copyOf(mode, mode.length + 1);
+        modes[mode.length] = Mode.Sequential;
+        // report contradictory modes before starting any job
+        new ActualMode(modes);
+
+        final CompletionService<StateInitializer> r = new ExecutorCompletionService<>(executor);
+        for (final Path path : paths) {
+            r.submit(new Callable<StateInitializer>() {
+                @Override
+                public StateInitializer call() throws IOException {
+                    return make(path, pb, executor, modes);
+                }
+            });
+        }
+        return r;
+    }
+
+    /**
+     * Parse the remaining bytes of a heap or direct buffer.
+     * 
+     * @note the state has no path, hence it is read only until changePath is called; use State.write to serialize it
+     *       to memory
+     * @note data is not copied, hence it must not be modified while the state is in use
+     */
+    public static StateInitializer make(ByteBuffer data, PoolBuilder pb, Mode... mode) throws IOException {
+        return make(data, pb, Workers.shared, mode);
+    }
+
+    public static StateInitializer make(ByteBuffer data, PoolBuilder pb, Executor executor, Mode... mode)
+            throws IOException {
+        return make(data, pb, executor, null, mode);
+    }
+
+    public static StateInitializer make(ByteBuffer data, PoolBuilder pb, Executor executor, Projection projection,
+            Mode... mode) throws IOException {
+        return parse(SegmentedInputStream.wrap(data), pb, new ActualMode(mode), executor, projection,
+                Cancellation.none);
+    }
+
+    /**
+     * Parse all bytes of a stream. The stream is not closed.
+     * 
+     * @note the state has no path, hence it is read only until changePath is called; use State.write to serialize it
+     *       to memory
+     */
+    public static StateInitializer make(InputStream in, PoolBuilder pb, Mode... mode) throws IOException {
+        return make(in, pb, Workers.shared, mode);
+    }
+
+    public static StateInitializer make(InputStream in, PoolBuilder pb, Executor executor, Mode... mode)
+            throws IOException {
+        return make(in, pb, executor, null, mode);
+    }
+
+    public static StateInitializer make(InputStream in, PoolBuilder pb, Executor executor, Projection projection,
+            Mode... mode) throws IOException {
+        return parse(SegmentedInputStream.read(in), pb, new ActualMode(mode), executor, projection,
+                Cancellation.none);
+    }
+
+    private static StateInitializer parse(SegmentedInputStream fs, PoolBuilder pb, ActualMode modes,
+            Executor executor, Projection projection, Cancellation cancellation) throws IOException {
+        try {
+            if (Parser.sequential(fs, modes, executor))
+                return new SeqParser(fs, pb, modes, executor, projection, cancellation);
+            else
+                return new ParParser(fs, pb, modes, executor, projection, cancellation);
+        } catch (BufferUnderflowException e) {
+            throw new OGSSException("unexpected EOF", e);
+        }
+    }
+
     Path path;
     boolean canWrite;
+    boolean append;
 
     // guard from file
     String guard;
 
+    // codec of HD entries from file
+    Codec codec;
+
+    // true, iff HD entries of the file end with a checksum
+    boolean checksums;
+
+    // runs asynchronous jobs
+    final Executor executor;
+
     // strings
     final StringPool Strings;
 
@@ -76,7 +223,8 @@ public abstract class StateInitializer {
      */
     protected int nextFieldID = 1;
 
-    StateInitializer(PoolBuilder pb) {
+    StateInitializer(PoolBuilder pb, Executor executor) {
+        this.executor = executor;
         SIFA = new FieldType[pb.sifaSize];
 
         Strings = new StringPool(pb.literals());
@@ -87,6 +235,7 @@ public abstract class StateInitializer {
 
         // TODO sane allocation / implementation of AnyRefType
         AnyRef = new AnyRefType(classes);
+        AnyRef.SIFA = SIFA;
 
         SIFA[0] = BoolType.get();
         SIFA[1] = I8.get();
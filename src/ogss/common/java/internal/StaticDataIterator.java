@@ -24,6 +24,7 @@ public class StaticDataIterator<T extends Obj> implements Iterator<T> {
         // find first valid position
         index = p.bpo;
         last = index + p.staticDataInstances;
+        p.materialize();
 
         // mode switch, if there is no other block
         if (index == last) {
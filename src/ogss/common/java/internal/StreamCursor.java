@@ -0,0 +1,151 @@
+package ogss.common.java.internal;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import ogss.common.java.internal.exceptions.PoolSizeMissmatchError;
+import ogss.common.jvm.streams.MappedInStream;
+
+/**
+ * Walks over the instances of a pool of a StreamParser in type order and decodes the selected fields directly from
+ * their HD entries. At most one block per field is held at any time.
+ *
+ * @note references to objects and containers cannot be resolved without a state; they are returned as Integer IDs
+ * @note values must be requested in ascending order of objects; decoding a value of an earlier object requires a
+ *       rescan of its block, repeated requests for the current object are cached
+ */
+public final class StreamCursor {
+
+    private final StreamParser file;
+
+    /**
+     * the current pool in type order and the last index of its static instances
+     */
+    private Pool<?> p;
+    private int last;
+    private final int endHeight;
+
+    /**
+     * the index of the current object into its base pool
+     */
+    private int index;
+
+    private final FieldDeclaration<?, ?>[] fields;
+
+    /**
+     * per field: the currently mapped block, the index of the next value in it, the index behind its last value and
+     * the last decoded value
+     */
+    private final MappedInStream[] in;
+    private final int[] next;
+    private final int[] end;
+    private final Object[] value;
+
+    StreamCursor(StreamParser file, Pool<?> pool, FieldDeclaration<?, ?>[] fields) {
+        this.file = file;
+        this.fields = fields;
+        in = new MappedInStream[fields.length];
+        next = new int[fields.length];
+        end = new int[fields.length];
+        value = new Object[fields.length];
+
+        p = pool;
+        endHeight = pool.THH;
+        index = pool.bpo - 1;
+        last = pool.bpo + pool.staticDataInstances;
+    }
+
+    /**
+     * Move to the next object.
+     *
+     * @return false, if there are no more objects
+     */
+    public boolean next() {
+        if (null == p)
+            return false;
+
+        // skip to the next non-empty pool
+        while (++index >= last) {
+            Pool<?> n = p.next;
+            if (null == n || n.THH <= endHeight) {
+                p = null;
+                return false;
+            }
+            p = n;
+            index = p.bpo - 1;
+            last = p.bpo + p.staticDataInstances;
+        }
+        return true;
+    }
+
+    /**
+     * @return the ID of the current object
+     */
+    public int ID() {
+        return index + 1;
+    }
+
+    /**
+     * @return the dynamic type of the current object
+     */
+    public Pool<?> type() {
+        return p;
+    }
+
+    /**
+     * @return the value of the selected field with the argument index for the current object
+     */
+    public Object get(int field) {
+        if (index == next[field] - 1)
+            return value[field];
+
+        final FieldDeclaration<?, ?> f = fields[field];
+        if (index < next[field] || end[field] <= index)
+            seek(field, f);
+
+        final MappedInStream s = in[field];
+        if (null == s)
+            return DistributedField.defaultValue(f.type);
+
+        try {
+            // skip values of objects that have not been requested
+            while (next[field] < index) {
+                decode(f.type, s);
+                next[field]++;
+            }
+            next[field]++;
+            return value[field] = decode(f.type, s);
+        } catch (BufferUnderflowException e) {
+            throw new PoolSizeMissmatchError(next[field], end[field], f, e);
+        }
+    }
+
+    /**
+     * map the block of f containing the current object
+     */
+    private void seek(int field, FieldDeclaration<?, ?> f) {
+        final Pool<?> owner = f.owner;
+        final int block = (index - owner.bpo) / file.fieldBlock;
+        final int first = owner.bpo + block * file.fieldBlock;
+
+        next[field] = first;
+        end[field] = Math.min(owner.bpo + owner.cachedSize, first + file.fieldBlock);
+
+        final MappedInStream[] bs = file.blocks.get(f);
+        final MappedInStream b = null == bs ? null : bs[block];
+        if (null == b) {
+            // the block has not been written, i.e. it contains default values only
+            in[field] = null;
+        } else {
+            // @note the stream is duplicated as it could be used by other cursors
+            final ByteBuffer d = b.asByteBuffer().duplicate();
+            in[field] = Parser.decompress(file.codec, new MappedInStream(d));
+        }
+    }
+
+    private static Object decode(FieldType<?> t, MappedInStream in) {
+        if (t instanceof Pool<?> || t instanceof ContainerType<?>)
+            return in.v32();
+        return t.r(in);
+    }
+}
@@ -0,0 +1,206 @@
+package ogss.common.java.internal;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.file.Path;
+import java.util.IdentityHashMap;
+import java.util.concurrent.Executor;
+
+import ogss.common.java.api.Cancellation;
+import ogss.common.java.api.Mode;
+import ogss.common.java.api.OGSSException;
+import ogss.common.java.api.Workers;
+import ogss.common.java.internal.exceptions.ParseException;
+import ogss.common.java.internal.streams.SegmentedInputStream;
+import ogss.common.jvm.streams.MappedInStream;
+
+/**
+ * A parser that does not create a state. Type information is merged as usual, but neither instances nor hulls are
+ * allocated and field data stays in the file until it is requested by a cursor.
+ *
+ * @note the pools of a stream parser know their size, but they do not own any objects
+ * @note strings are lazy per element, as they are in a state
+ */
+public final class StreamParser extends Parser implements AutoCloseable {
+
+    /**
+     * Open a file for streaming access.
+     */
+    public static StreamParser open(Path path, PoolBuilder pb) throws IOException {
+        SegmentedInputStream fs = SegmentedInputStream.open(path);
+        try {
+            StreamParser r = new StreamParser(fs, pb, new ActualMode(Mode.ReadOnly), Workers.shared);
+            r.path = path;
+            return r;
+        } catch (BufferUnderflowException e) {
+            fs.close();
+            throw new OGSSException("unexpected EOF", e);
+        } catch (RuntimeException | IOException e) {
+            fs.close();
+            throw e;
+        }
+    }
+
+    /**
+     * The HD entries of all fields with data, indexed by block. Streams are positioned at the first value of the block
+     * or at the compressed image of the block.
+     */
+    IdentityHashMap<FieldDeclaration<?, ?>, MappedInStream[]> blocks;
+
+    StreamParser(SegmentedInputStream input, PoolBuilder pb, ActualMode modes, Executor executor)
+            throws IOException {
+        super(input, pb, modes, executor, null, Cancellation.none);
+    }
+
+    /**
+     * parse T and F
+     */
+    @Override
+    final void typeBlock() {
+        // Java initialization happens in wrong order :-(
+        blocks = new IdentityHashMap<>();
+
+        /**
+         * *************** * T Class * ****************
+         */
+        typeDefinitions();
+
+        // calculate cached size for all pools
+        for (int i = classes.size() - 1; i > 0; i--) {
+            final Pool<?> n = classes.get(i);
+            if (null != n.superPool) {
+                n.superPool.cachedSize += n.cachedSize;
+            }
+        }
+
+        /**
+         * *************** * T Container * ****************
+         */
+        TContainer();
+
+        /**
+         * *************** * T Enum * ****************
+         */
+        TEnum();
+
+        /**
+         * *************** * F * ****************
+         */
+        for (Pool<?> p : classes) {
+            readFields(p);
+        }
+    }
+
+    /**
+     * Jump through HD-entries to remember the location of field data
+     */
+    @Override
+    final void processData() throws IOException {
+        while (!input.eof()) {
+            final MappedInStream map = input.nextBlock();
+
+            final int start = map.asByteBuffer().position();
+            final int id = map.v32();
+            if (SEGMENT_ID == id) {
+                segment = map;
+                break;
+            }
+            if (CODEC_ID == id) {
+                // @note blocks are decompressed by cursors using the codec of the parser
+                if (!blocks.isEmpty())
+                    throw new ParseException(map, null, "codec changes after field data cannot be streamed");
+                codec = readCodec(map);
+                continue;
+            }
+            if (BLOCKS_ID == id) {
+                if (!blocks.isEmpty())
+                    throw new ParseException(map, null, "block size changes after field data cannot be streamed");
+                readBlocks(map);
+                continue;
+            }
+            if (CHECKSUM_ID == id) {
+                readChecksums(map);
+                continue;
+            }
+            final Object f = fields.get(id);
+            verify(map, checksum(map, start));
+
+            if (f instanceof HullType<?>) {
+                final int count = map.v32();
+
+                // container hulls are not allocated, hence only strings are required
+                if (f instanceof StringPool) {
+                    Strings.allocateInstances(count, decompress(codec, map));
+                }
+
+            } else {
+                final FieldDeclaration<?, ?> fd = (FieldDeclaration<?, ?>) f;
+                final int size = fd.owner.cachedSize;
+                final int block = size > fieldBlock ? map.v32() : 0;
+
+                MappedInStream[] bs = blocks.get(fd);
+                if (null == bs) {
+                    bs = new MappedInStream[0 == size ? 1 : 1 + (size - 1) / fieldBlock];
+                    blocks.put(fd, bs);
+                }
+                bs[block] = map;
+            }
+        }
+    }
+
+    /**
+     * Objects of appended segments are interleaved with existing objects, which cannot be expressed by the block
+     * structure of a stream parser.
+     */
+    @Override
+    void appendSegment(MappedInStream header) {
+        throw new OGSSException("files with appended segments cannot be streamed; open them as a state instead");
+    }
+
+    /**
+     * @return the pool with the argument name or null, if there is no such pool
+     */
+    public Pool<?> pool(String name) {
+        for (Pool<?> p : classes)
+            if (p.name.equals(name))
+                return p;
+        return null;
+    }
+
+    /**
+     * @return a cursor over all instances of the argument pool yielding values of the argument fields
+     * @throws OGSSException
+     *             if a field does not belong to the pool or its type is not supported by cursors
+     */
+    public StreamCursor cursor(Pool<?> pool, String... fieldNames) {
+        final FieldDeclaration<?, ?>[] fs = new FieldDeclaration<?, ?>[fieldNames.length];
+        for (int i = 0; i < fs.length; i++) {
+            FieldIterator it = pool.allFields();
+            while (it.hasNext()) {
+                FieldDeclaration<?, ?> f = it.next();
+                if (f.name.equals(fieldNames[i])) {
+                    fs[i] = f;
+                    break;
+                }
+            }
+            if (null == fs[i])
+                throw new OGSSException(String.format("%s has no field %s", pool.name, fieldNames[i]));
+            if (fs[i].type instanceof AnyRefType)
+                throw new OGSSException(String.format("%s.%s: anyRef fields are not supported by cursors", pool.name,
+                        fieldNames[i]));
+        }
+        return new StreamCursor(this, pool, fs);
+    }
+
+    /**
+     * @return access to strings of the file
+     */
+    public StringPool strings() {
+        return Strings;
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+}
@@ -0,0 +1,549 @@
+package ogss.common.java.internal;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import ogss.common.java.api.Codec;
+import ogss.common.java.api.Durability;
+import ogss.common.java.api.OGSSException;
+import ogss.common.java.api.Workers;
+import ogss.common.java.internal.fieldTypes.ArrayType;
+import ogss.common.java.internal.fieldTypes.ListType;
+import ogss.common.java.internal.fieldTypes.MapType;
+import ogss.common.java.internal.fieldTypes.SetType;
+import ogss.common.java.internal.streams.BlockOutStream;
+import ogss.common.java.internal.streams.BufferPool;
+import ogss.common.java.internal.streams.GatheringOutputStream;
+
+/**
+ * A writer that does not create a state. Objects are added in type order and their field data is written as soon as
+ * a block of FieldDeclaration.FD_Threshold objects is complete. As T requires the final size of every pool, blocks are
+ * spilled to a temporary file next to the target and copied behind the header on close.
+ *
+ * @note objects can only reference objects that have been added before the block containing the reference is
+ *       complete, i.e. forward references are restricted to the current block; writing a block with a reference to
+ *       an object that has not been added fails
+ * @note strings and containers are kept until close, because they are written to hulls
+ * @note objects must not be modified after their block has been written; distributed fields drop their values
+ */
+public final class StreamWriter implements AutoCloseable {
+
+    /**
+     * Create a file for streaming output. Existing files will be overwritten on close.
+     */
+    public static StreamWriter open(Path path, PoolBuilder pb) throws IOException {
+        return new StreamWriter(path, new Creator(pb, Workers.shared), null);
+    }
+
+    /**
+     * Create a file for streaming output whose HD entries are compressed by codec. Blocks are compressed before they
+     * are spilled.
+     */
+    public static StreamWriter open(Path path, PoolBuilder pb, Codec codec) throws IOException {
+        return new StreamWriter(path, new Creator(pb, Workers.shared), codec);
+    }
+
+    /**
+     * objects of a base pool whose blocks have not been written for all fields
+     */
+    private static final class Window {
+        final Pool<?> base;
+        Obj[] data = new Obj[1024];
+        /**
+         * the index of data[0] into the base pool
+         */
+        int offset;
+        /**
+         * the number of objects added to the base pool
+         */
+        int size;
+        /**
+         * the pool of the last added object
+         */
+        Pool<?> current;
+
+        Window(Pool<?> base) {
+            this.base = base;
+            current = base;
+            for (Pool<?> p = base; null != p; p = p.next)
+                p.data = data;
+        }
+    }
+
+    /**
+     * a spilled HD entry without its header
+     */
+    private static final class Block {
+        final FieldDeclaration<?, ?> f;
+        final int block;
+        final long offset, length;
+
+        Block(FieldDeclaration<?, ?> f, int block, long offset, long length) {
+            this.f = f;
+            this.block = block;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private final Path path, spillPath;
+
+    private final StateInitializer types;
+
+    private final Codec codec;
+
+    private final BufferPool buffers = BufferPool.shared;
+
+    private final GatheringOutputStream spill;
+
+    private final ArrayList<Block> spilled = new ArrayList<>();
+
+    /**
+     * windows indexed by pool; null for sub pools
+     */
+    private final Window[] windows;
+
+    /**
+     * per pool: the index behind the last object whose fields have been written
+     */
+    private final int[] flushed;
+
+    private boolean closed;
+
+    private StreamWriter(Path path, StateInitializer types, Codec codec) throws IOException {
+        this.path = path;
+        this.types = types;
+        this.codec = codec;
+
+        final int count = types.classes.size();
+        windows = new Window[count];
+        flushed = new int[count];
+        for (Pool<?> p : types.classes) {
+            if (null == p.superPool)
+                windows[p.typeID - 10] = new Window(p);
+        }
+
+        // IDs of strings and containers are assigned while field data is written
+        types.Strings.resetIDs();
+        for (HullType<?> c : types.containers) {
+            if (c.maxDeps != 0)
+                c.resetSerialization();
+        }
+
+        // @note the spill file has a unique name, hence writers and stale files of crashed writers do not collide
+        spillPath = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".spill");
+        try {
+            spill = new GatheringOutputStream(spillPath, GatheringOutputStream.DEFAULT_CHUNK_SIZE, buffers,
+                    Durability.NoSync);
+        } catch (IOException e) {
+            Files.deleteIfExists(spillPath);
+            throw e;
+        }
+    }
+
+    /**
+     * @return the pool with the argument name or null, if there is no such pool
+     */
+    public Pool<?> pool(String name) {
+        for (Pool<?> p : types.classes)
+            if (p.name.equals(name))
+                return p;
+        return null;
+    }
+
+    /**
+     * @return the pool of the argument object
+     * @throws OGSSException
+     *             if the object does not belong to the type system of this writer
+     */
+    private Pool<?> pool(Obj ref) {
+        final Pool<?> r;
+        if (ref instanceof NamedObj) {
+            r = ((NamedObj) ref).τp();
+        } else {
+            final int TID = ref.stid();
+            final FieldType<?> t = 0 <= TID && TID < types.SIFA.length ? types.SIFA[TID] : null;
+            r = t instanceof Pool<?> ? (Pool<?>) t : null;
+        }
+        if (null == r || r.typeID - 10 >= types.classes.size() || types.classes.get(r.typeID - 10) != r)
+            throw new OGSSException("the argument element does not belong to the type system of this writer");
+        return r;
+    }
+
+    /**
+     * Add an object to the file. Objects of a type hierarchy have to be added in type order, i.e. after the first
+     * object of a pool has been added, no object of a preceding pool can be added.
+     *
+     * @note the object gets its final ID immediately
+     */
+    public void add(Obj ref) throws IOException {
+        if (closed)
+            throw new OGSSException("the writer has been closed");
+        if (0 != ref.ID)
+            throw new OGSSException("the argument element already belongs to a state or has been added before");
+
+        final Pool<?> p = pool(ref);
+        final Window w = windows[p.basePool.typeID - 10];
+        if (p != w.current)
+            enter(w, p);
+
+        if (w.size - w.offset == w.data.length)
+            makeRoom(w, p);
+
+        w.data[w.size - w.offset] = ref;
+        ref.ID = ++w.size;
+        p.staticDataInstances++;
+
+        // write blocks that have been completed by ref
+        for (Pool<?> a = p; null != a; a = a.superPool) {
+            if (w.size - flushed[a.typeID - 10] == FieldDeclaration.FD_Threshold)
+                writeBlock(w, a);
+        }
+    }
+
+    /**
+     * move the window to the argument pool
+     */
+    private void enter(Window w, Pool<?> q) throws IOException {
+        final Pool<?> c = w.current;
+        if (q.typeID < c.typeID)
+            throw new OGSSException(
+                    String.format("objects have to be added in type order, but %s follows %s", q.name, c.name));
+
+        // pools that are not super pools of q are complete
+        for (Pool<?> a = c; !contains(a, q); a = a.superPool)
+            writeBlock(w, a);
+
+        // pools in between are empty; q starts behind the current object
+        Pool<?> n = c;
+        do {
+            n = n.next;
+            n.bpo = w.size;
+            flushed[n.typeID - 10] = w.size;
+        } while (n != q);
+
+        w.current = q;
+    }
+
+    /**
+     * @return true iff q is a, or a sub pool of a
+     */
+    private static boolean contains(Pool<?> a, Pool<?> q) {
+        while (q.THH > a.THH)
+            q = q.superPool;
+        return q == a;
+    }
+
+    /**
+     * drop objects whose fields have been written or grow the window of a full hierarchy
+     *
+     * @note as at most FD_Threshold objects per pool are pending, a window never exceeds 2 * FD_Threshold objects
+     */
+    private void makeRoom(Window w, Pool<?> current) {
+        // all pools except the super pools of current are complete
+        int low = w.size;
+        for (Pool<?> a = current; null != a; a = a.superPool)
+            low = Math.min(low, flushed[a.typeID - 10]);
+
+        final Obj[] d = w.data;
+        final int shift = low - w.offset;
+        if (2 * shift >= d.length) {
+            System.arraycopy(d, shift, d, 0, d.length - shift);
+            Arrays.fill(d, d.length - shift, d.length, null);
+            w.offset = low;
+        } else {
+            w.data = Arrays.copyOf(d, 2 * d.length);
+            for (Pool<?> p = w.base; null != p; p = p.next)
+                p.data = w.data;
+        }
+    }
+
+    /**
+     * write the pending objects of a to spill
+     */
+    private void writeBlock(Window w, Pool<?> a) throws IOException {
+        final int i = flushed[a.typeID - 10];
+        final int h = w.size;
+        if (i == h)
+            return;
+        for (FieldDeclaration<?, ?> f : a.dataFields)
+            checkReferences(w, f, i, h);
+        flushed[a.typeID - 10] = h;
+
+        final int block = (i - a.bpo) / FieldDeclaration.FD_Threshold;
+        for (FieldDeclaration<?, ?> f : a.dataFields) {
+            final BlockOutStream buffer = buffers.borrow();
+            final BlockOutStream data = Writer.data(codec, buffer);
+            // @note data is relative to the window
+            final boolean discard = f.write(i - w.offset, h - w.offset, data);
+            Writer.compress(codec, buffer, data);
+            buffer.close();
+            if (discard) {
+                buffers.release(buffer);
+            } else {
+                final long offset = spill.position();
+                spill.write(buffer);
+                spilled.add(new Block(f, block, offset, spill.position() - offset));
+            }
+
+            if (f instanceof DistributedField<?, ?>) {
+                final DistributedField<?, ?> df = (DistributedField<?, ?>) f;
+                for (int j = i; j < h; j++)
+                    df.data.remove(w.data[j - w.offset]);
+            }
+        }
+    }
+
+    /**
+     * Ensure that objects in [i, h) refer through f to objects that have been added already.
+     *
+     * @throws OGSSException
+     *             if an object refers to an object without ID, because the reference would be written as null
+     */
+    private static void checkReferences(Window w, FieldDeclaration<?, ?> f, int i, int h) {
+        final FieldType<?> t = f.type;
+        if ((t instanceof HullType<?> || !(t instanceof ByRefType<?>)) && !(t instanceof InterfacePool<?, ?>)
+                && !(t instanceof UnrootedInterfacePool<?>))
+            return;
+
+        for (int j = i; j < h; j++) {
+            final Obj ref = w.data[j - w.offset];
+            final Object v = f.get(ref);
+            if (v instanceof Obj && 0 == ((Obj) v).ID)
+                throw new OGSSException(String.format(
+                        "%s.%s of object %d refers to %s, which has not been added yet; "
+                                + "objects have to be added before the block referring to them is written",
+                        f.owner.name, f.name, ref.ID, v));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        close(Durability.DataSync);
+    }
+
+    /**
+     * Write remaining blocks and assemble the file.
+     */
+    public void close(Durability durability) throws IOException {
+        if (closed)
+            return;
+        closed = true;
+
+        try {
+            final ArrayList<Pool<?>> classes = types.classes;
+
+            // write remaining blocks; trailing empty pools start behind the last object
+            for (Window w : windows) {
+                if (null != w) {
+                    for (Pool<?> a = w.current; null != a; a = a.superPool)
+                        writeBlock(w, a);
+                    for (Pool<?> n = w.current.next; null != n; n = n.next)
+                        n.bpo = w.size;
+                    for (Pool<?> p = w.base; null != p; p = p.next)
+                        p.data = null;
+                    w.data = null;
+                }
+            }
+            spill.close();
+
+            // calculate cached size for all pools
+            for (Pool<?> p : classes)
+                p.cachedSize = p.staticDataInstances;
+            for (int i = classes.size() - 1; i > 0; i--) {
+                final Pool<?> n = classes.get(i);
+                if (null != n.superPool) {
+                    n.superPool.cachedSize += n.cachedSize;
+                }
+            }
+
+            assemble(durability);
+        } finally {
+            Files.deleteIfExists(spillPath);
+        }
+    }
+
+    /**
+     * write G, S, T, F followed by spilled blocks and hulls
+     *
+     * @note mirrors Writer, except that all types are known and sizes are final
+     */
+    private void assemble(Durability durability) throws IOException {
+        final StringPool string = types.Strings;
+
+        // FTID and FFID; all classes and enums, but only used containers are written
+        final int[] FTID = new int[10 + types.classes.size() + types.containers.size() + types.enums.size()];
+        final int[] FFID = new int[types.nextFieldID];
+        {
+            for (int i = 0; i < 10; i++)
+                FTID[i] = i;
+            int nextFTID = 10;
+            for (Pool<?> p : types.classes)
+                FTID[p.typeID] = nextFTID++;
+            for (HullType<?> c : types.containers)
+                if (c.maxDeps != 0)
+                    FTID[c.typeID] = nextFTID++;
+            for (EnumPool<?> p : types.enums)
+                FTID[p.typeID] = nextFTID++;
+
+            int nextFFID = 1;
+            for (ContainerType<?> c : types.containers)
+                FFID[c.fieldID] = c.maxDeps == 0 ? -1 : nextFFID++;
+            for (Pool<?> p : types.classes)
+                for (FieldDeclaration<?, ?> f : p.dataFields)
+                    FFID[f.id] = nextFFID++;
+        }
+
+        final BlockOutStream tf = buffers.borrow();
+        {
+            /**
+             * *************** * T Class * ****************
+             */
+            tf.v64(types.classes.size());
+            for (Pool<?> p : types.classes) {
+                tf.v64(string.IDs.get(p.name));
+                tf.v64(p.staticDataInstances);
+                Writer.restrictions(p, tf);
+                if (null == p.superPool)
+                    tf.i8((byte) 0);
+                else {
+                    tf.v64(p.superPool.typeID - 9);
+                    tf.v64(p.bpo);
+                }
+                tf.v64(p.dataFields.size());
+            }
+
+            /**
+             * *************** * T Container * ****************
+             */
+            int count = 0;
+            for (HullType<?> c : types.containers)
+                if (c.maxDeps != 0)
+                    count++;
+            tf.v64(count);
+            for (HullType<?> c : types.containers) {
+                if (c.maxDeps != 0) {
+                    if (c instanceof ArrayType<?>) {
+                        tf.i8((byte) 0);
+                        tf.v64(FTID[((ArrayType<?>) c).base.typeID]);
+                    } else if (c instanceof ListType<?>) {
+                        tf.i8((byte) 1);
+                        tf.v64(FTID[((ListType<?>) c).base.typeID]);
+                    } else if (c instanceof SetType<?>) {
+                        tf.i8((byte) 2);
+                        tf.v64(FTID[((SetType<?>) c).base.typeID]);
+                    } else if (c instanceof MapType<?, ?>) {
+                        MapType<?, ?> t = (MapType<?, ?>) c;
+                        tf.i8((byte) 3);
+                        tf.v64(FTID[t.keyType.typeID]);
+                        tf.v64(FTID[t.valueType.typeID]);
+                    }
+                }
+            }
+
+            /**
+             * *************** * T Enum * ****************
+             */
+            tf.v64(types.enums.size());
+            for (EnumPool<?> p : types.enums) {
+                tf.v64(string.id(p.name));
+                tf.v64(p.values.length);
+                for (EnumProxy<?> v : p.values) {
+                    tf.v64(string.id(v.name));
+                }
+            }
+
+            /**
+             * *************** * F * ****************
+             */
+            for (Pool<?> p : types.classes) {
+                for (FieldDeclaration<?, ?> f : p.dataFields) {
+                    tf.v64(string.id(f.name));
+                    tf.v64(FTID[f.type.typeID]);
+                    Writer.restrictions(f, tf);
+                }
+            }
+            tf.close();
+        }
+
+        // write hulls; containers of containers precede their bases and strings come last
+        final ArrayList<BlockOutStream> hulls = new ArrayList<>();
+        for (int c = types.containers.size() - 1; c >= 0; c--) {
+            final ContainerType<?> t = types.containers.get(c);
+            final int size = t.IDs.size();
+            if (0 == t.maxDeps || 0 == size)
+                continue;
+
+            for (int i = 0; i < size; i += HullType.HD_Threshold) {
+                final BlockOutStream buffer = buffers.borrow();
+                buffer.v64(FFID[t.fieldID]);
+                buffer.v64(size);
+                final BlockOutStream data = Writer.data(codec, buffer);
+                if (size > HullType.HD_Threshold) {
+                    data.v64(i / HullType.HD_Threshold);
+                }
+                t.write(i, Math.min(size, i + HullType.HD_Threshold), data);
+                Writer.compress(codec, buffer, data);
+                buffer.close();
+                hulls.add(buffer);
+            }
+        }
+        {
+            final BlockOutStream buffer = buffers.borrow();
+            final boolean discard = string.write(buffer, codec);
+            buffer.close();
+            if (discard)
+                buffers.release(buffer);
+            else
+                hulls.add(buffer);
+        }
+
+        try (FileChannel src = FileChannel.open(spillPath, StandardOpenOption.READ)) {
+            final GatheringOutputStream out = new GatheringOutputStream(path, GatheringOutputStream.DEFAULT_CHUNK_SIZE,
+                    buffers, durability);
+
+            /**
+             * *************** * G * ****************
+             */
+            out.i16((short) 0x2622);
+
+            /**
+             * *************** * S * ****************
+             */
+            try {
+                string.writeLiterals(out, Workers.callerRuns).acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OGSSException("interrupted while writing strings", e);
+            }
+
+            out.write(tf);
+            if (null != codec)
+                Writer.writeCodec(codec, out);
+
+            /**
+             * *************** * HD * ****************
+             */
+            for (Block b : spilled) {
+                final int id = FFID[b.f.id];
+                final boolean hasBlocks = b.f.owner.cachedSize > FieldDeclaration.FD_Threshold;
+                final long head = Writer.v64Size(id) + (hasBlocks ? Writer.v64Size(b.block) : 0);
+
+                out.v64(head + b.length - 2);
+                out.v64(id);
+                if (hasBlocks)
+                    out.v64(b.block);
+                out.transfer(src, b.offset, b.length);
+            }
+            for (BlockOutStream buffer : hulls)
+                out.writeSized(buffer);
+
+            out.close();
+        }
+    }
+}
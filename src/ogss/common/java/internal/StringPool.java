@@ -1,15 +1,25 @@
 package ogss.common.java.internal;
 
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import ogss.common.java.api.Codec;
 import ogss.common.java.internal.exceptions.InvalidPoolIndexException;
-import ogss.common.jvm.streams.BufferedOutStream;
-import ogss.common.jvm.streams.FileInputStream;
-import ogss.common.jvm.streams.FileOutputStream;
+import ogss.common.java.internal.streams.BlockOutStream;
+import ogss.common.java.internal.streams.GatheringOutputStream;
 import ogss.common.jvm.streams.MappedInStream;
 
 /**
@@ -24,17 +34,37 @@ final public class StringPool extends HullType<String> {
     public static final Charset utf8 = Charset.forName("UTF-8");
 
     /**
-     * keep the mapped in stream open until all strings have been read from input HS
+     * keep the mapped in streams open until all strings have been read from input HS
+     *
+     * @note appended segments add an HS each; hulls[i] holds the strings starting at firstIDs[i]
      */
-    private MappedInStream in;
+    private MappedInStream[] hulls = new MappedInStream[0];
+    private int[] firstIDs = new int[0];
 
     /**
-     * ID ⇀ (absolute offset|32, length|32) will be used if idMap contains a null reference
+     * ID ⇀ (offset|32, length|32) will be used if idMap contains a null reference
      *
      * @note there is a fake entry at ID 0
+     * @note offsets are relative to the window of their hull rather than to the file, hence they fit into 32 bits even
+     *       if the file is larger than 2GiB
      */
     long[] positions;
 
+    /**
+     * Strings with IDs up to the end of the last HS. Lazy strings are decoded without locking and published by CAS.
+     * Strings added after reading, e.g. by a write, are only in idMap.
+     *
+     * @note the table is published after hulls and positions, hence they are visible to readers of the table
+     * @note lazy strings are never stored in idMap; the table is dropped as soon as IDs are reassigned
+     */
+    private volatile AtomicReferenceArray<String> table;
+
+    /**
+     * True, if a view on a string in a mapped hull may exist. Such views read the input file until they are collected,
+     * hence the file must not be rewritten in place.
+     */
+    volatile boolean hullViews;
+
     /**
      * Strings used as names of types, fields or enum constants.
      * 
@@ -42,45 +72,176 @@ final public class StringPool extends HullType<String> {
      */
     private String[] literals;
 
+    /**
+     * The number of literals decoded by a single job. Smaller literal blocks are decoded by the parser thread.
+     */
+    static final int SL_CHUNK = 4096;
+
+    /**
+     * The state-local replacement of String.intern. Strings of the pool are canonical, i.e. equal strings are
+     * identical, which is required by IDs and by name comparisons of the parser.
+     * 
+     * @note the table is seeded with known literals, hence names read from file are identical to the names of generated
+     *       code
+     * @note strings that are not part of the file are dropped after each write
+     */
+    private final ConcurrentHashMap<String, String> interned;
+
     StringPool(String[] literals) {
         super(typeID);
         this.literals = literals;
+        interned = new ConcurrentHashMap<>(2 * literals.length);
+        for (String s : literals)
+            interned.put(s, s);
+    }
+
+    /**
+     * @return the canonical string equal to s
+     */
+    final String intern(String s) {
+        final String r = interned.putIfAbsent(s, s);
+        return null == r ? s : r;
+    }
+
+    /**
+     * The number of literal blocks whose merge results are cached.
+     */
+    static final int SL_CACHE = 16;
+
+    /**
+     * Merged literal blocks of recently read files by their image and known literals. Files of the same schema have
+     * equal literal blocks, hence opening them decodes and merges literals only once.
+     * 
+     * @note access is synchronized on the map; the least recently used block is evicted
+     * @note the merge of the type block is not cached, because T holds per-file counts and BPOs; names of T are
+     *       resolved by identity comparison of cached literals, hence only differences of schemas require string
+     *       comparison
+     */
+    private static final LinkedHashMap<LiteralBlock, LiteralBlock> mergedSLs = new LinkedHashMap<LiteralBlock, LiteralBlock>(
+            2 * SL_CACHE, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<LiteralBlock, LiteralBlock> eldest) {
+            return size() > SL_CACHE;
+        }
+    };
+
+    /**
+     * The image of a literal block together with the known literals it has been merged with. After merging, the block
+     * holds the decoded file literals and the merged literals.
+     * 
+     * @note keys used for lookups view the mapped file; blocks stored in the cache own a copy of their image
+     */
+    private static final class LiteralBlock {
+        private final ByteBuffer image;
+        private final String[] known;
+        private final int hash;
+
+        String[] file;
+        String[] merged;
+
+        LiteralBlock(ByteBuffer buffer, int begin, int end, String[] known) {
+            final ByteBuffer b = buffer.duplicate();
+            b.limit(end);
+            b.position(begin);
+            image = b.slice();
+            this.known = known;
+            hash = image.hashCode() ^ known.length;
+        }
+
+        private LiteralBlock(LiteralBlock key, String[] file, String[] merged) {
+            final byte[] copy = new byte[key.image.remaining()];
+            key.image.duplicate().get(copy);
+            image = ByteBuffer.wrap(copy);
+            known = key.known;
+            hash = key.hash;
+            this.file = file;
+            this.merged = merged;
+        }
+
+        /**
+         * @return a block that can be cached, i.e. that does not refer to the file of this block
+         */
+        LiteralBlock detach(String[] file, String[] merged) {
+            return new LiteralBlock(this, file, merged);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof LiteralBlock))
+                return false;
+            final LiteralBlock b = (LiteralBlock) obj;
+            if (hash != b.hash || known.length != b.known.length || !image.equals(b.image))
+                return false;
+            // @note merged literals are used, only if known literals are identical
+            for (int i = 0; i < known.length; i++)
+                if (known[i] != b.known[i])
+                    return false;
+            return true;
+        }
     }
 
     /**
      * Read the string literal block
      */
-    void readSL(FileInputStream in) {
+    void readSL(MappedInStream in, Executor executor) {
         final int count = in.v32();
         if (0 == count) {
             // trivial merge
             return;
         }
 
+        // images are located sequentially, as each image is preceded by its length
+        final ByteBuffer buffer = in.asByteBuffer();
+        final int begin = buffer.position();
+        final int[] offsets = new int[count];
+        final int[] lengths = new int[count];
+        for (int i = 0; i < count; i++) {
+            final int length = in.v32();
+            final int offset = buffer.position();
+            if (length < 0 || buffer.limit() - offset < length)
+                throw new BufferUnderflowException();
+            offsets[i] = offset;
+            lengths[i] = length;
+            buffer.position(offset + length);
+        }
+
+        // reuse the merge of an equal block
+        final LiteralBlock key = new LiteralBlock(buffer, begin, buffer.position(), literals);
+        LiteralBlock cached;
+        synchronized (mergedSLs) {
+            cached = mergedSLs.get(key);
+        }
+        if (null != cached && canonical(cached.file)) {
+            idMap.addAll(Arrays.asList(cached.file));
+            literals = cached.merged;
+            return;
+        }
+
+        final String[] file = decodeSL(buffer, offsets, lengths, executor);
+
         // known/file literal index
         int ki = 0, fi = 0;
-        String next = new String(in.bytes(-1, in.v32()), utf8);
 
         // merge literals from file into literals
         ArrayList<String> merged = new ArrayList<>(count);
         boolean hasFI, hasKI;
         while ((hasFI = fi < count) | (hasKI = ki < literals.length)) {
-            // note: we will intern the string only if it is unknown
-            final int cmp = hasFI ? (hasKI ? literals[ki].compareTo(next) : 1) : -1;
+            final int cmp = hasFI ? (hasKI ? literals[ki].compareTo(file[fi]) : 1) : -1;
 
             if (0 <= cmp) {
-                if (0 == cmp) {
-                    // discard next
-                    next = literals[ki++];
-                } else {
-                    // use next
-                    next = next.intern();
-                }
-                merged.add(next);
-                idMap.add(next);
-
-                if (++fi < count)
-                    next = new String(in.bytes(-1, in.v32()), utf8);
+                // @note known literals are canonical, i.e. a file literal is identical to an equal known literal
+                if (0 == cmp)
+                    ki++;
+                merged.add(file[fi]);
+                idMap.add(file[fi]);
+                fi++;
             } else {
                 merged.add(literals[ki++]);
             }
@@ -90,6 +251,65 @@ final public class StringPool extends HullType<String> {
         if (literals.length != merged.size()) {
             literals = merged.toArray(new String[merged.size()]);
         }
+
+        final LiteralBlock block = key.detach(file, literals);
+        synchronized (mergedSLs) {
+            mergedSLs.put(block, block);
+        }
+    }
+
+    /**
+     * Make cached literals canonical with respect to this pool.
+     * 
+     * @return false, iff a literal differs from the canonical string, i.e. the cached merge cannot be used
+     */
+    private boolean canonical(String[] file) {
+        for (String s : file)
+            if (intern(s) != s)
+                return false;
+        return true;
+    }
+
+    /**
+     * Decode count canonical literals located by offsets and lengths. Literals are decoded in parallel, if there are
+     * more than SL_CHUNK of them.
+     */
+    private String[] decodeSL(final ByteBuffer buffer, final int[] offsets, final int[] lengths, Executor executor) {
+        final int count = offsets.length;
+        final String[] r = new String[count];
+        if (count <= SL_CHUNK) {
+            decode(buffer, offsets, lengths, r, 0, count);
+            return r;
+        }
+
+        final int jobs = (count - 1) / SL_CHUNK + 1;
+        final Semaphore done = new Semaphore(0);
+        for (int j = 0; j < jobs; j++) {
+            final int first = j * SL_CHUNK;
+            final int last = Math.min(count, first + SL_CHUNK);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        decode(buffer, offsets, lengths, r, first, last);
+                    } finally {
+                        done.release();
+                    }
+                }
+            });
+        }
+        done.acquireUninterruptibly(jobs);
+        return r;
+    }
+
+    private void decode(ByteBuffer buffer, int[] offsets, int[] lengths, String[] r, int first, int last) {
+        final ByteBuffer in = buffer.duplicate();
+        for (int i = first; i < last; i++) {
+            final byte[] img = new byte[lengths[i]];
+            in.position(offsets[i]);
+            in.get(img);
+            r[i] = intern(new String(img, utf8));
+        }
     }
 
     /**
@@ -97,8 +317,6 @@ final public class StringPool extends HullType<String> {
      */
     @Override
     protected int allocateInstances(int count, MappedInStream in) {
-        this.in = in;
-
         // read offsets
         int[] offsets = new int[count];
         for (int i = 0; i < count; i++) {
@@ -107,9 +325,15 @@ final public class StringPool extends HullType<String> {
 
         // create positions
         int spi = idMap.size();
-        final long[] sp = new long[spi + count];
+        final long[] sp = null == positions ? new long[spi + count] : Arrays.copyOf(positions, spi + count);
         positions = sp;
 
+        final int hs = hulls.length;
+        hulls = Arrays.copyOf(hulls, hs + 1);
+        hulls[hs] = in;
+        firstIDs = Arrays.copyOf(firstIDs, hs + 1);
+        firstIDs[hs] = spi;
+
         // store offsets
         // @note this has to be done after reading all offsets, as sizes are relative to that point and decoding
         // is done using absolute sizes
@@ -121,6 +345,16 @@ final public class StringPool extends HullType<String> {
             last += len;
         }
 
+        // create the table containing literals and strings that have been decoded already
+        final AtomicReferenceArray<String> old = table;
+        final String[] t = idMap.toArray(new String[idMap.size()]);
+        if (null != old) {
+            for (int i = old.length() - 1; i > 0; i--)
+                if (null == t[i])
+                    t[i] = old.get(i);
+        }
+        table = new AtomicReferenceArray<>(t);
+
         return 0;
     }
 
@@ -129,7 +363,9 @@ final public class StringPool extends HullType<String> {
      * other lazy field data has been loaded.
      */
     void dropRB() {
-        in = null;
+        // @note decoded strings remain in the table
+        hulls = new MappedInStream[0];
+        firstIDs = new int[0];
         positions = null;
     }
 
@@ -140,7 +376,16 @@ final public class StringPool extends HullType<String> {
      * @note the parallel write operation is synchronized on this, hence the buffer flush has to be synchronized on this
      *       as well
      */
-    Semaphore writeBlock(final FileOutputStream out) {
+    Semaphore writeBlock(final GatheringOutputStream out, Executor executor) {
+        resetIDs();
+        return writeLiterals(out, executor);
+    }
+
+    /**
+     * Drop all IDs and assign IDs to literals. Literals always get the smallest IDs.
+     */
+    final void resetIDs() {
+        table = null;
         resetSerialization();
 
         // create inverse map
@@ -148,9 +393,14 @@ final public class StringPool extends HullType<String> {
             IDs.put(s, idMap.size());
             idMap.add(s);
         }
+    }
 
+    /**
+     * write the string literal block to out without changing IDs
+     */
+    final Semaphore writeLiterals(final GatheringOutputStream out, Executor executor) {
         Semaphore writeBarrier = new Semaphore(0, false);
-        State.pool.execute(new Runnable() {
+        executor.execute(new Runnable() {
             @Override
             public void run() {
                 try {
@@ -177,18 +427,36 @@ final public class StringPool extends HullType<String> {
     /**
      * Write HS
      */
-    final boolean write(BufferedOutStream out) throws IOException {
+    final boolean write(BlockOutStream out, Codec codec) throws IOException {
         // the null in idMap is not written and literals are written in SL
-        final int hullOffset = literals.length + 1;
+        return write(out, literals.length + 1, codec);
+    }
+
+    /**
+     * write strings with IDs starting at hullOffset to out; lengths and images are compressed by codec
+     *
+     * @return true iff there was nothing to write
+     */
+    final boolean write(BlockOutStream buffer, final int hullOffset, Codec codec) throws IOException {
         final int count = idMap.size() - hullOffset;
         if (0 == count)
             return true;
 
         // write fieldID (always 0)
-        out.i8((byte) 0);
+        buffer.i8((byte) 0);
 
-        out.v64(count);
+        buffer.v64(count);
 
+        final BlockOutStream out = Writer.data(codec, buffer);
+        write(out, hullOffset, count);
+        Writer.compress(codec, buffer, out);
+        return false;
+    }
+
+    /**
+     * write lengths and images of count strings starting at hullOffset
+     */
+    private void write(BlockOutStream out, final int hullOffset, final int count) throws IOException {
         // note: getBytes is an expensive operation!
         final byte[][] images = new byte[count][];
         // lengths
@@ -202,13 +470,30 @@ final public class StringPool extends HullType<String> {
         for (int i = 0; i < count; i++) {
             out.put(images[i]);
         }
-
-        return false;
     }
 
     @Override
     public int id(String ref) {
-        return null == ref ? 0 : super.id(ref.intern());
+        if (null == ref)
+            return 0;
+        // @note most strings have an ID already, hence they do not have to be interned
+        synchronized (this) {
+            final Integer r = IDs.get(ref);
+            if (null != r)
+                return r;
+        }
+        return super.id(intern(ref));
+    }
+
+    /**
+     * Drop canonical strings that have not been written by the last write. Afterwards, only literals and strings of
+     * the file are interned.
+     * 
+     * @note must only be called after a write, i.e. while IDs of all strings of the file are assigned
+     */
+    final void dropUnused() {
+        final HashSet<String> used = new HashSet<>(idMap);
+        interned.keySet().retainAll(used);
     }
 
     @Override
@@ -216,35 +501,122 @@ final public class StringPool extends HullType<String> {
         if (0 == index)
             return null;
 
-        String result;
-        // @note this block has to be synchronized in order to enable parallel
-        // decoding of field data
+        // strings of the file are read without locking
+        final AtomicReferenceArray<String> t = table;
+        if (null != t && 0 < index && index < t.length()) {
+            final String result = t.get(index);
+            if (null != result)
+                return result;
+
+            final String loaded = load(index);
+            if (null != loaded) {
+                // @note strings are canonical, hence a concurrent load of the same string yields the same result
+                t.compareAndSet(index, null, loaded);
+                return loaded;
+            }
+        }
+
+        // @note strings added to the pool are only in idMap, whose modification has to be synchronized
         synchronized (this) {
             try {
-                result = idMap.get(index);
+                return idMap.get(index);
             } catch (IndexOutOfBoundsException e) {
-                throw new InvalidPoolIndexException(index, positions.length, "string", e);
+                throw new InvalidPoolIndexException(index, idMap.size(), "string", e);
             }
-            if (null != result)
-                return result;
+        }
+    }
 
-            // we have to load the string from disk
-            // @note this cannot happen if there was no HS, i.e. it is safe to access in & positions
-            long off = positions[index];
-            byte[] chars = in.bytes((int) (off >> 32L), (int) off);
+    /**
+     * Get a view on the string with the given ID. Strings of the file that have not been decoded yet are viewed in
+     * their hull, i.e. without decoding them.
+     *
+     * @note while such views may exist, flush replaces the file instead of overwriting it
+     * @return null for ID 0
+     */
+    public StringView view(int index) {
+        if (0 == index)
+            return null;
+
+        final AtomicReferenceArray<String> t = table;
+        if (null != t && 0 < index && index < t.length()) {
+            final String decoded = t.get(index);
+            if (null != decoded)
+                return new StringView(decoded);
+
+            final long[] ps = positions;
+            final MappedInStream[] hs = hulls;
+            final int[] fs = firstIDs;
+            if (null != ps && 0 != hs.length) {
+                final long off = ps[index];
+                int h = hs.length - 1;
+                while (fs[h] > index)
+                    h--;
+
+                hullViews = true;
+                // @note views use absolute reads only, hence the buffer can be shared
+                return new StringView(hs[h].asByteBuffer(), (int) (off >> 32L), (int) off, this);
+            }
+        }
+        return new StringView(get(index));
+    }
 
-            result = new String(chars, utf8).intern();
-            idMap.set(index, result);
+    /**
+     * Decode the strings of the file with IDs in [first, last) into the table.
+     */
+    final void decode(int first, int last) {
+        final AtomicReferenceArray<String> t = table;
+        for (int i = first; i < last; i++) {
+            if (null == t.get(i)) {
+                final String loaded = load(i);
+                if (null != loaded)
+                    t.compareAndSet(i, null, loaded);
+            }
         }
-        return result;
+    }
+
+    /**
+     * Decode a string from its hull.
+     *
+     * @return the canonical string or null, if the hull has been dropped already
+     */
+    private String load(int index) {
+        final long[] ps = positions;
+        final MappedInStream[] hs = hulls;
+        final int[] fs = firstIDs;
+        if (null == ps || 0 == hs.length)
+            return null;
+
+        final long off = ps[index];
+        int h = hs.length - 1;
+        while (fs[h] > index)
+            h--;
+
+        // @note the buffer is duplicated, because mapped in streams are not thread-safe
+        final ByteBuffer in = hs[h].asByteBuffer().duplicate();
+        in.position((int) (off >> 32L));
+        final byte[] chars = new byte[(int) off];
+        in.get(chars);
+        return intern(new String(chars, utf8));
     }
 
     @Override
     public Iterator<String> iterator() {
-        Iterator<String> r = idMap.iterator();
-        // skip null-entry
-        r.next();
-        return r;
+        return new Iterator<String>() {
+            // skip null-entry
+            private int i = 1;
+
+            @Override
+            public boolean hasNext() {
+                return i < idMap.size();
+            }
+
+            @Override
+            public String next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return get(i++);
+            }
+        };
     }
 
     @Override
@@ -0,0 +1,244 @@
+package ogss.common.java.internal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view on a string of a pool. Views on strings of the file read the UTF-8 image from the mapped hull, hence
+ * comparison, hashing and prefix tests neither decode nor allocate. The String is created on demand by toString.
+ *
+ * @note views compare by content; hashCode is the hash code of the represented String
+ * @note views are immutable and can be shared by threads
+ */
+public final class StringView implements CharSequence {
+
+    /**
+     * the hull holding the image or null, if the view is backed by value
+     */
+    private final ByteBuffer image;
+    private final int offset;
+    private final int size;
+
+    /**
+     * the pool that makes decoded strings canonical
+     */
+    private final StringPool pool;
+
+    /**
+     * the string, if it has been decoded already
+     */
+    private volatile String value;
+
+    // cached results; the ascii state is 0, if unknown, 1, if the image is ASCII only, and 2 otherwise
+    private int hash;
+    private byte ascii;
+
+    StringView(ByteBuffer image, int offset, int size, StringPool pool) {
+        this.image = image;
+        this.offset = offset;
+        this.size = size;
+        this.pool = pool;
+    }
+
+    StringView(String value) {
+        this.image = null;
+        this.offset = 0;
+        this.size = 0;
+        this.pool = null;
+        this.value = value;
+    }
+
+    /**
+     * @return the number of bytes of the UTF-8 image or -1, if the view is not backed by an image
+     */
+    public int utf8Length() {
+        return null == image ? -1 : size;
+    }
+
+    private boolean isASCII() {
+        if (0 == ascii) {
+            byte r = 1;
+            for (int p = offset, end = offset + size; p < end; p++)
+                if (image.get(p) < 0) {
+                    r = 2;
+                    break;
+                }
+            ascii = r;
+        }
+        return 1 == ascii;
+    }
+
+    /**
+     * Decode the code point starting at p.
+     *
+     * @return the position of the next code point in the upper and the code point in the lower 32 bits
+     * @note images are written by String.getBytes, hence they are well-formed
+     */
+    private long next(int p) {
+        final int b = image.get(p);
+        if (b >= 0)
+            return ((long) (p + 1) << 32) | b;
+        if ((b & 0xE0) == 0xC0)
+            return ((long) (p + 2) << 32) | ((b & 0x1F) << 6) | (image.get(p + 1) & 0x3F);
+        if ((b & 0xF0) == 0xE0)
+            return ((long) (p + 3) << 32) | ((b & 0x0F) << 12) | ((image.get(p + 1) & 0x3F) << 6)
+                    | (image.get(p + 2) & 0x3F);
+        return ((long) (p + 4) << 32) | ((b & 0x07) << 18) | ((image.get(p + 1) & 0x3F) << 12)
+                | ((image.get(p + 2) & 0x3F) << 6) | (image.get(p + 3) & 0x3F);
+    }
+
+    /**
+     * Compare the image to the first chars of s.
+     *
+     * @return the number of chars matched or -1, if the image is not a prefix of s
+     */
+    private int match(CharSequence s) {
+        final int n = s.length();
+        int j = 0;
+        for (int p = offset, end = offset + size; p < end;) {
+            final long r = next(p);
+            p = (int) (r >>> 32);
+            final int c = (int) r;
+            if (c < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if (j == n || s.charAt(j++) != c)
+                    return -1;
+            } else {
+                if (j + 1 >= n || s.charAt(j++) != Character.highSurrogate(c)
+                        || s.charAt(j++) != Character.lowSurrogate(c))
+                    return -1;
+            }
+        }
+        return j;
+    }
+
+    /**
+     * @return true, iff the view represents the same sequence of chars as s
+     */
+    public boolean contentEquals(CharSequence s) {
+        if (null == image)
+            return value.contentEquals(s);
+        if (s instanceof StringView)
+            return equals(s);
+        return match(s) == s.length();
+    }
+
+    /**
+     * @return true, iff the represented string starts with prefix
+     */
+    public boolean startsWith(CharSequence prefix) {
+        if (null == image)
+            return value.startsWith(prefix.toString());
+
+        if (prefix instanceof StringView) {
+            final StringView v = (StringView) prefix;
+            if (null != v.image) {
+                if (v.size > size)
+                    return false;
+                for (int i = 0; i < v.size; i++)
+                    if (image.get(offset + i) != v.image.get(v.offset + i))
+                        return false;
+                return true;
+            }
+            prefix = v.value;
+        }
+
+        final int n = prefix.length();
+        int j = 0;
+        for (int p = offset, end = offset + size; j < n && p < end;) {
+            final long r = next(p);
+            p = (int) (r >>> 32);
+            final int c = (int) r;
+            if (c < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                if (prefix.charAt(j++) != c)
+                    return false;
+            } else {
+                if (prefix.charAt(j++) != Character.highSurrogate(c))
+                    return false;
+                if (j < n && prefix.charAt(j++) != Character.lowSurrogate(c))
+                    return false;
+            }
+        }
+        return j == n;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (!(obj instanceof StringView))
+            return false;
+
+        final StringView v = (StringView) obj;
+        if (null == image)
+            return v.contentEquals(value);
+        if (null == v.image)
+            return contentEquals(v.value);
+
+        if (size != v.size)
+            return false;
+        if (image == v.image && offset == v.offset)
+            return true;
+        for (int i = 0; i < size; i++)
+            if (image.get(offset + i) != v.image.get(v.offset + i))
+                return false;
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        if (null == image)
+            return value.hashCode();
+
+        int h = hash;
+        if (0 == h && 0 != size) {
+            for (int p = offset, end = offset + size; p < end;) {
+                final long r = next(p);
+                p = (int) (r >>> 32);
+                final int c = (int) r;
+                if (c < Character.MIN_SUPPLEMENTARY_CODE_POINT)
+                    h = 31 * h + c;
+                else
+                    h = 31 * (31 * h + Character.highSurrogate(c)) + Character.lowSurrogate(c);
+            }
+            hash = h;
+        }
+        return h;
+    }
+
+    @Override
+    public int length() {
+        if (null != image && isASCII())
+            return size;
+        return toString().length();
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (null != image && isASCII()) {
+            if (index < 0 || size <= index)
+                throw new StringIndexOutOfBoundsException(index);
+            return (char) image.get(offset + index);
+        }
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    /**
+     * @return the represented string; the result is canonical with respect to the pool
+     */
+    @Override
+    public String toString() {
+        String r = value;
+        if (null == r) {
+            final byte[] chars = new byte[size];
+            final ByteBuffer in = image.duplicate();
+            in.position(offset);
+            in.get(chars);
+            value = r = pool.intern(new String(chars, StringPool.utf8));
+        }
+        return r;
+    }
+}
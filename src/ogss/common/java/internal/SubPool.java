@@ -20,15 +20,29 @@ public final class SubPool<T extends Obj> extends Pool<T> {
         this.cls = cls;
     }
 
+    /**
+     * @return true, iff this pool holds instances of a type unknown to the binding
+     */
+    boolean unknown() {
+        return UnknownObject.class == cls;
+    }
+
+    /**
+     * @note fields of unknown pools are distributed and report modifications of their objects
+     */
+    @Override
+    protected boolean tracksModifications() {
+        return unknown();
+    }
+
     @Override
     protected SubPool<T> makeSub(int index, String name) {
         return new SubPool<>(index, name, cls, this);
     }
 
     @Override
-    protected void allocateInstances() {
-        int i = bpo, j;
-        final int high = i + staticDataInstances;
+    protected boolean allocateInstances(int i, final int high) {
+        int j;
         try {
             Constructor<T> make = cls.getConstructor(Pool.class, int.class);
             while (i < high) {
@@ -38,6 +52,7 @@ public final class SubPool<T extends Obj> extends Pool<T> {
         } catch (Exception e) {
             throw new RuntimeException("internal error", e);
         }
+        return true;
     }
 
     @Override
@@ -2,7 +2,7 @@ package ogss.common.java.internal;
 
 import java.io.IOException;
 
-import ogss.common.jvm.streams.BufferedOutStream;
+import ogss.common.java.internal.streams.BlockOutStream;
 
 /**
  * A job that writes field data to a buffer.
@@ -23,7 +23,7 @@ final class WFT extends WJob {
     }
 
     @Override
-    protected void job(BufferedOutStream buffer) throws IOException {
+    protected void job(BlockOutStream buffer) throws IOException {
 
         final int size = f.owner.cachedSize;
 
@@ -35,11 +35,11 @@ final class WFT extends WJob {
             // iff we have blockID zero we may need to split
             if (0 == block) {
                 // split large FD blocks into blocks
-                if (size > FieldDeclaration.FD_Threshold) {
+                if (size > self.fieldBlock) {
                     hasblocks = true;
 
                     // we have to fork this task
-                    int blockCount = (size - 1) / FieldDeclaration.FD_Threshold;
+                    int blockCount = (size - 1) / self.fieldBlock;
                     // @note we increment await by blockCount - 1
                     synchronized (self) {
                         self.awaitBuffers += blockCount++;
@@ -47,9 +47,12 @@ final class WFT extends WJob {
 
                     f.blocks = blockCount;
                     for (int i = 1; i < blockCount; i++) {
+                        // @note the writer does not await blocks that have not been started on cancellation
+                        if (self.cancellation.isCancelled())
+                            break;
                         WFT job = new WFT(self, f);
                         job.block = i;
-                        State.pool.execute(job);
+                        self.executor.execute(job);
                     }
                 } else {
                     hasblocks = false;
@@ -60,16 +63,18 @@ final class WFT extends WJob {
 
             Pool<?> owner = f.owner;
             final int bpo = owner.bpo;
-            int i = block * FieldDeclaration.FD_Threshold;
-            int h = Math.min(size, i + FieldDeclaration.FD_Threshold);
+            int i = block * self.fieldBlock;
+            int h = Math.min(size, i + self.fieldBlock);
             i += bpo;
             h += bpo;
 
             buffer.v64(self.FFID[f.id]);
-            if (size > FieldDeclaration.FD_Threshold) {
+            if (size > self.fieldBlock) {
                 buffer.v64(block);
             }
-            discard = f.write(i, h, buffer);
+            final BlockOutStream data = Writer.data(self.codec, buffer);
+            discard = f.write(i, h, data);
+            Writer.compress(self.codec, buffer, data);
 
         } else {
             hasblocks = false;
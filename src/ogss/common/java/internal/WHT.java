@@ -2,7 +2,7 @@ package ogss.common.java.internal;
 
 import ogss.common.java.internal.fieldTypes.MapType;
 import ogss.common.java.internal.fieldTypes.SingleArgumentType;
-import ogss.common.jvm.streams.BufferedOutStream;
+import ogss.common.java.internal.streams.BlockOutStream;
 
 import java.io.IOException;
 
@@ -25,7 +25,7 @@ final class WHT extends WJob {
     }
 
     @Override
-    protected void job(BufferedOutStream buffer) throws IOException {
+    protected void job(BlockOutStream buffer) throws IOException {
         if (ht instanceof ContainerType<?>) {
             final ContainerType<?> t = (ContainerType<?>) ht;
 
@@ -37,10 +37,10 @@ final class WHT extends WJob {
                 // iff we have blockID zero we may need to split
                 if (0 == block) {
                     // split non-HS blocks that are too large into blocks
-                    if (t.typeID != StringPool.typeID && size > HullType.HD_Threshold) {
+                    if (t.typeID != StringPool.typeID && size > self.hullBlock) {
                         hasblocks = true;
                         // we have to fork this task
-                        int blockCount = (size - 1) / HullType.HD_Threshold;
+                        int blockCount = (size - 1) / self.hullBlock;
                         // @note we increment await by blockCount - 1
                         synchronized (self) {
                             self.awaitBuffers += blockCount++;
@@ -48,9 +48,12 @@ final class WHT extends WJob {
 
                         t.blocks = blockCount;
                         for (int i = 1; i < blockCount; i++) {
+                            // @note the writer does not await blocks that have not been started on cancellation
+                            if (self.cancellation.isCancelled())
+                                break;
                             WHT job = new WHT(self, t);
                             job.block = i;
-                            State.pool.execute(job);
+                            self.executor.execute(job);
                         }
                     }
                 } else {
@@ -59,12 +62,14 @@ final class WHT extends WJob {
 
                 buffer.v64(self.FFID[t.fieldID]);
                 buffer.v64(size);
-                if (size > HullType.HD_Threshold) {
-                    buffer.v64(block);
+                final BlockOutStream data = Writer.data(self.codec, buffer);
+                if (size > self.hullBlock) {
+                    data.v64(block);
                 }
-                int i = block * HullType.HD_Threshold;
-                final int end = Math.min(size, i + HullType.HD_Threshold);
-                t.write(i, end, buffer);
+                int i = block * self.hullBlock;
+                final int end = Math.min(size, i + self.hullBlock);
+                t.write(i, end, data);
+                Writer.compress(self.codec, buffer, data);
             }
 
             final boolean done;
@@ -104,7 +109,7 @@ final class WHT extends WJob {
                             if (0 == --bt.deps) {
                                 if (null != tail) {
                                     // the key hull has to be executed in parallel
-                                    State.pool.execute(tail);
+                                    self.executor.execute(tail);
                                 }
                                 // execute task in this thread to avoid unnecessary overhead
                                 tail = new WHT(self, bt);
@@ -114,7 +119,7 @@ final class WHT extends WJob {
                 }
             }
         } else {
-            discard = ((StringPool) ht).write(buffer);
+            discard = ((StringPool) ht).write(buffer, self.codec);
         }
     }
 }
\ No newline at end of file
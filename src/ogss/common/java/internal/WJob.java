@@ -2,7 +2,8 @@ package ogss.common.java.internal;
 
 import java.io.IOException;
 
-import ogss.common.jvm.streams.BufferedOutStream;
+import ogss.common.java.internal.streams.BlockOutStream;
+import ogss.common.java.internal.streams.GatheringOutputStream;
 
 /**
  * A Writer Job.
@@ -14,23 +15,29 @@ abstract class WJob implements Runnable {
 
     WJob(Writer self) {
         this.self = self;
+        synchronized (self) {
+            self.runningJobs++;
+        }
     }
 
     boolean discard = true;
 
+    /**
+     * the entry written by this job and its checksum; set, if the entry has not been discarded
+     */
+    BlockOutStream result;
+    int checksum;
+
     WJob tail;
 
     @Override
     final public void run() {
-        BufferedOutStream buffer = self.recycleBuffers.poll();
-        if (null == buffer) {
-            buffer = new BufferedOutStream();
-        } else {
-            buffer.recycle();
-        }
+        final BlockOutStream buffer = self.buffers.borrow();
 
         try {
-            job(buffer);
+            // @note skipped jobs are discarded
+            if (!self.cancellation.isCancelled())
+                job(buffer);
         } catch (Throwable e) {
             synchronized (self) {
                 if (null == self.writeErrors)
@@ -43,9 +50,13 @@ abstract class WJob implements Runnable {
             // buffer on error
             buffer.close();
             if (discard) {
-                self.recycleBuffers.add(buffer);
+                self.buffers.release(buffer);
             } else {
-                self.finishedBuffers.add(buffer);
+                // @note checksums are calculated by jobs to calculate them in parallel
+                if (self.checksums)
+                    checksum = GatheringOutputStream.checksum(buffer);
+                result = buffer;
+                self.finishedJobs.add(this);
             }
 
             // ensure that writer can terminate, errors will be
@@ -54,10 +65,16 @@ abstract class WJob implements Runnable {
             // the OGSS implementation itself is broken
             self.barrier.release();
 
+            // @note a tail has been counted on creation, hence the writer cannot observe zero jobs before it finished
+            synchronized (self) {
+                if (0 == --self.runningJobs)
+                    self.notifyAll();
+            }
+
             if (null != tail)
                 tail.run();
         }
     }
 
-    protected abstract void job(BufferedOutStream buffer) throws IOException;
+    protected abstract void job(BlockOutStream buffer) throws IOException;
 }
\ No newline at end of file
@@ -1,17 +1,21 @@
 package ogss.common.java.internal;
 
+import ogss.common.java.api.Cancellation;
+import ogss.common.java.api.Codec;
 import ogss.common.java.api.OGSSException;
 import ogss.common.java.internal.fieldTypes.ArrayType;
 import ogss.common.java.internal.fieldTypes.ListType;
 import ogss.common.java.internal.fieldTypes.MapType;
 import ogss.common.java.internal.fieldTypes.SetType;
-import ogss.common.jvm.streams.BufferedOutStream;
-import ogss.common.jvm.streams.FileOutputStream;
+import ogss.common.java.internal.streams.BlockOutStream;
+import ogss.common.java.internal.streams.BufferPool;
+import ogss.common.java.internal.streams.GatheringOutputStream;
 import ogss.common.jvm.streams.OutStream;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
 
 final public class Writer {
@@ -35,17 +39,42 @@ final public class Writer {
 
     private final State state;
 
+    /**
+     * the codec of HD entries or null, if entries are not compressed
+     */
+    final Codec codec;
+
+    /**
+     * the executor running write jobs
+     */
+    final Executor executor;
+
+    /**
+     * the maximum number of values of a field block and of a container block
+     */
+    final int fieldBlock, hullBlock;
+
+    /**
+     * true, iff HD entries end with a checksum
+     */
+    final boolean checksums;
+
+    /**
+     * Blocks chosen automatically have at least this many values.
+     */
+    private static final int MIN_FIELD_BLOCK = 4096, MIN_HULL_BLOCK = 1024;
+
     /**
      * TODO serialization of restrictions
      */
-    private static final void restrictions(Pool<?> p, OutStream out) throws IOException {
+    static final void restrictions(Pool<?> p, OutStream out) throws IOException {
         out.i8((byte) 0);
     }
 
     /**
      * TODO serialization of restrictions
      */
-    private static final void restrictions(FieldDeclaration<?, ?> f, OutStream out) throws IOException {
+    static final void restrictions(FieldDeclaration<?, ?> f, OutStream out) throws IOException {
         out.i8((byte) 0);
     }
 
@@ -60,15 +89,47 @@ final public class Writer {
      */
     int awaitBuffers = 0;
 
+    /**
+     * the number of jobs that have been created but did not finish yet; synchronize on this to protect it on
+     * modification
+     */
+    int runningJobs = 0;
+
     // @note can be used to add buffers concurrently to the write queue
     // @note the permit is given after we added a buffer; therefore the reader
     // can always read some buffer if he uses our permit (order is not
     // important)
-    final ConcurrentLinkedQueue<BufferedOutStream> finishedBuffers = new ConcurrentLinkedQueue<>();
-    final ConcurrentLinkedQueue<BufferedOutStream> recycleBuffers = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<WJob> finishedJobs = new ConcurrentLinkedQueue<>();
+
+    /**
+     * the pool providing buffers to jobs
+     */
+    final BufferPool buffers = BufferPool.shared;
+
+    /**
+     * checked by jobs before they start and while awaiting jobs
+     */
+    final Cancellation cancellation;
 
-    public Writer(State state, FileOutputStream out) throws Exception {
+    public Writer(State state, GatheringOutputStream out) throws Exception {
+        this(state, out, Cancellation.none);
+    }
+
+    /**
+     * @note if cancellation is cancelled, out is closed and the write fails; out is incomplete in this case
+     */
+    public Writer(State state, GatheringOutputStream out, Cancellation cancellation) throws Exception {
+        this.cancellation = cancellation;
         this.state = state;
+        this.codec = state.codec;
+        this.executor = state.executor;
+        this.fieldBlock = blockSize(state.fieldBlockSize, state, MIN_FIELD_BLOCK, FieldDeclaration.FD_Threshold);
+        this.hullBlock = blockSize(state.hullBlockSize, state, MIN_HULL_BLOCK, HullType.HD_Threshold);
+        this.checksums = state.checksums;
+
+        // objects of the file are written as well
+        for (Pool<?> p : state.classes)
+            p.materialize();
 
         // create and initialize FTID; we start in a world where every type is dropped unless it has been written
         this.FTID = new int[10 + state.classes.length + state.containers.length + state.enums.length];
@@ -118,22 +179,36 @@ final public class Writer {
          */
 
         // our string synchronisation barrier
-        final Semaphore SB = state.strings.writeBlock(out);
+        final Semaphore SB = state.strings.writeBlock(out, executor);
 
         /**
          * *************** * T F * ****************
          */
 
         // write T and F to a buffer, while S is written
-        final BufferedOutStream buffer = new BufferedOutStream();
+        final BlockOutStream buffer = buffers.borrow();
 
         // @note here, the field data write tasks will be started already
         writeTF(buffer);
+        // @note S is written to out by a job, hence out can be closed only after the job finished
         SB.acquire();
+        if (cancellation.isCancelled()) {
+            abort(out);
+            cancellation.check();
+        }
 
         // write buffered TF-blocks
         out.write(buffer);
-        recycleBuffers.add(buffer);
+
+        if (FieldDeclaration.FD_Threshold != fieldBlock || HullType.HD_Threshold != hullBlock)
+            writeBlocks(fieldBlock, hullBlock, out);
+
+        // entries following the codec entry are compressed
+        if (null != codec)
+            writeCodec(codec, out);
+
+        if (checksums)
+            writeChecksums(out);
 
         /**
          * *************** * HD * ****************
@@ -145,11 +220,18 @@ final public class Writer {
                 if (--awaitBuffers < 0)
                     break;
             }
-            barrier.acquire();
-            final BufferedOutStream buf = finishedBuffers.poll();
-            if (null != buf) {
-                out.writeSized(buf);
-                recycleBuffers.add(buf);
+            try {
+                cancellation.acquire(barrier, 1);
+            } catch (OGSSException e) {
+                abort(out);
+                throw e;
+            }
+            final WJob job = finishedJobs.poll();
+            if (null != job) {
+                if (checksums)
+                    out.writeSized(job.result, job.checksum);
+                else
+                    out.writeSized(job.result);
             }
             // else: some buffer was discarded
         }
@@ -160,12 +242,333 @@ final public class Writer {
         if (null != writeErrors) {
             throw new OGSSException("write failed", writeErrors);
         }
+
+        // the file reflects the type system of state now
+        state.fileFieldIDs = FFID;
+        state.filePoolIDs = new int[state.classes.length];
+        for (Pool<?> p : state.classes)
+            state.filePoolIDs[p.typeID - 10] = FTID[p.typeID] - 10;
+
+        // strings that are not part of the file are not interned any longer
+        state.strings.dropUnused();
+    }
+
+    /**
+     * Close out and return the buffers of finished jobs after the write has been cancelled.
+     * 
+     * @note jobs that have been started already are awaited, because their buffers are released only once they
+     *       finished
+     */
+    private void abort(GatheringOutputStream out) throws IOException {
+        boolean interrupted = false;
+        synchronized (this) {
+            while (0 != runningJobs) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+
+        WJob job;
+        while (null != (job = finishedJobs.poll()))
+            buffers.release(job.result);
+        out.close();
+
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    /**
+     * @return the number of bytes required to encode v as v64
+     */
+    static int v64Size(long v) {
+        int r = 1;
+        while (r < 9 && 0 != (v >>>= 7))
+            r++;
+        return r;
+    }
+
+    /**
+     * Write an HD entry selecting the codec of subsequent entries.
+     */
+    static void writeCodec(Codec codec, OutStream out) throws IOException {
+        // @note the size of the entry is fieldID + codec ID - 2
+        out.v64(v64Size(Parser.CODEC_ID) - 1);
+        out.v64(Parser.CODEC_ID);
+        out.i8((byte) (null == codec ? 0 : codec.id));
+    }
+
+    /**
+     * Write an HD entry enabling checksums of subsequent entries.
+     */
+    static void writeChecksums(OutStream out) throws IOException {
+        out.v64(v64Size(Parser.CHECKSUM_ID) - 1);
+        out.v64(Parser.CHECKSUM_ID);
+        out.i8((byte) 1);
+    }
+
+    /**
+     * Write an HD entry setting the block sizes of subsequent entries.
+     */
+    static void writeBlocks(int fieldBlock, int hullBlock, OutStream out) throws IOException {
+        out.v64(v64Size(Parser.BLOCKS_ID) + v64Size(fieldBlock) + v64Size(hullBlock) - 2);
+        out.v64(Parser.BLOCKS_ID);
+        out.v64(fieldBlock);
+        out.v64(hullBlock);
+    }
+
+    /**
+     * @return the requested block size or, if requested is 0, a size that splits the largest type hierarchy into about
+     *         one block per core
+     */
+    static int blockSize(int requested, State state, int min, int max) {
+        if (requested < 0)
+            throw new OGSSException("block sizes have to be positive; use 0 to choose them automatically");
+        if (0 != requested)
+            return requested;
+
+        int objects = 0;
+        for (Pool<?> p : state.classes)
+            if (null == p.superPool)
+                objects = Math.max(objects, p.size());
+
+        final int cores = Runtime.getRuntime().availableProcessors();
+        final int r = (objects / cores + min - 1) / min * min;
+        return Math.max(min, Math.min(max, r));
+    }
+
+    /**
+     * @return the stream receiving the data of an HD entry whose header has been written to buffer
+     */
+    static BlockOutStream data(Codec codec, BlockOutStream buffer) {
+        return null == codec ? buffer : BufferPool.shared.borrow();
+    }
+
+    /**
+     * Compress data obtained from {@link #data} into buffer, which is a nop if the entry is not compressed. Data is
+     * released in any case.
+     * 
+     * @note the compressed image is prefixed by the size of the original data
+     */
+    static void compress(Codec codec, BlockOutStream buffer, BlockOutStream data) throws IOException {
+        if (data != buffer) {
+            try {
+                data.close();
+                final byte[] raw = GatheringOutputStream.toArray(data);
+                buffer.v64(raw.length);
+                buffer.put(codec.compress(raw));
+            } finally {
+                BufferPool.shared.release(data);
+            }
+        }
+    }
+
+    /**
+     * Append objects created since the last write as a segment to out. Objects in the file are moved in memory to
+     * their position in the merged type order, but neither they nor their field data are written again.
+     *
+     * @note the caller has to ensure that all changes can be expressed as a segment
+     * @note cancellation is observed until objects are moved; out is closed and the file is unchanged in this case
+     */
+    static void append(State state, GatheringOutputStream out, Cancellation cancellation) throws Exception {
+        final Pool<?>[] classes = state.classes;
+        final int[] added = new int[classes.length];
+        final int[] first = new int[classes.length];
+        final int fieldBlock = blockSize(state.fieldBlockSize, state, MIN_FIELD_BLOCK, FieldDeclaration.FD_Threshold);
+
+        // move objects of the file and insert new objects
+        boolean moved = false;
+        for (Pool<?> b : classes) {
+            if (null != b.superPool)
+                continue;
+
+            boolean changed = false;
+            for (Pool<?> p = b; null != p; p = p.next) {
+                added[p.typeID - 10] = p.newObjects.size();
+                changed |= 0 != added[p.typeID - 10];
+            }
+            if (!changed)
+                continue;
+
+            // lazy data refers to the previous layout
+            for (Pool<?> p = b; null != p; p = p.next)
+                for (FieldDeclaration<?, ?> f : p.dataFields)
+                    f.ensureLoaded();
+
+            if (!moved && cancellation.isCancelled()) {
+                out.close();
+                cancellation.check();
+            }
+            moved = true;
+            Pool.makeRoom(b, added, first);
+
+            for (Pool<?> p = b; null != p; p = p.next) {
+                final Obj[] d = p.data;
+                int i = first[p.typeID - 10];
+                for (Obj o : p.newObjects) {
+                    d[i] = o;
+                    o.ID = ++i;
+                }
+                p.newObjects.clear();
+
+                for (FieldDeclaration<?, ?> f : p.dataFields) {
+                    if (f instanceof DistributedField<?, ?>) {
+                        ((DistributedField<?, ?>) f).compress(p.bpo);
+                    }
+                }
+            }
+        }
+
+        final BufferPool buffers = BufferPool.shared;
+
+        // the segment header lists added objects per pool of the file
+        final BlockOutStream head = buffers.borrow();
+        {
+            head.v64(Parser.SEGMENT_ID);
+            head.v64(classes.length);
+            // @note pools of the state and the file are equal and in the same order; ensured by State.canAppend
+            for (Pool<?> p : classes)
+                head.v64(added[p.typeID - 10]);
+            head.close();
+        }
+
+        // strings added by field data follow the strings of the file
+        final int stringStart = state.strings.idMap.size();
+
+        // create a job per field, pool with added objects and block
+        final ArrayList<AppendJob> jobs = new ArrayList<>();
+        final Semaphore done = new Semaphore(0);
+        for (Pool<?> p : classes) {
+            final int size = added[p.typeID - 10];
+            if (0 == size)
+                continue;
+
+            final int poolID = state.filePoolIDs[p.typeID - 10];
+            for (Pool<?> s = p; null != s; s = s.superPool) {
+                for (FieldDeclaration<?, ?> f : s.dataFields) {
+                    final int fieldID = state.fileFieldIDs[f.id];
+                    for (int block = 0; block * fieldBlock < size; block++) {
+                        final int i = first[p.typeID - 10] + block * fieldBlock;
+                        final int h = Math.min(first[p.typeID - 10] + size, i + fieldBlock);
+                        jobs.add(new AppendJob(f, fieldID, poolID, size > fieldBlock ? block : -1, i, h, state.codec,
+                                state.checksums, done));
+                    }
+                }
+            }
+        }
+        for (AppendJob j : jobs)
+            state.executor.execute(j);
+        done.acquire(jobs.size());
+
+        Throwable errors = null;
+        for (AppendJob j : jobs) {
+            if (null != j.error) {
+                if (null == errors)
+                    errors = j.error;
+                else
+                    errors.addSuppressed(j.error);
+            }
+        }
+        if (null != errors) {
+            out.close();
+            throw new OGSSException("append failed", errors);
+        }
+
+        /**
+         * *************** * HD * ****************
+         */
+        out.writeSized(head);
+        if (FieldDeclaration.FD_Threshold != fieldBlock)
+            writeBlocks(fieldBlock, HullType.HD_Threshold, out);
+        // @note segments start uncompressed, hence the codec entry is required even if there is no codec
+        writeCodec(state.codec, out);
+        if (state.checksums) {
+            writeChecksums(out);
+            for (AppendJob j : jobs)
+                if (null != j.result)
+                    out.writeSized(j.result, j.checksum);
+        } else {
+            for (AppendJob j : jobs)
+                if (null != j.result)
+                    out.writeSized(j.result);
+        }
+
+        final BlockOutStream hs = buffers.borrow();
+        final boolean discard = state.strings.write(hs, stringStart, state.codec);
+        hs.close();
+        if (discard)
+            buffers.release(hs);
+        else if (state.checksums)
+            out.writeSized(hs, GatheringOutputStream.checksum(hs));
+        else
+            out.writeSized(hs);
+
+        out.close();
+    }
+
+    /**
+     * A job that writes field data of objects added to a pool to a buffer.
+     */
+    private static final class AppendJob implements Runnable {
+        private final FieldDeclaration<?, ?> f;
+        private final int fieldID, poolID, block, first, last;
+        private final Codec codec;
+        private final boolean checksums;
+        private final Semaphore done;
+
+        /**
+         * the written data; null if discarded
+         */
+        BlockOutStream result;
+        int checksum;
+        Throwable error;
+
+        AppendJob(FieldDeclaration<?, ?> f, int fieldID, int poolID, int block, int first, int last, Codec codec,
+                boolean checksums, Semaphore done) {
+            this.f = f;
+            this.fieldID = fieldID;
+            this.poolID = poolID;
+            this.block = block;
+            this.first = first;
+            this.last = last;
+            this.codec = codec;
+            this.checksums = checksums;
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            final BlockOutStream buffer = BufferPool.shared.borrow();
+            try {
+                buffer.v64(fieldID);
+                buffer.v64(poolID);
+                if (-1 != block)
+                    buffer.v64(block);
+                final BlockOutStream data = data(codec, buffer);
+                final boolean discard = f.write(first, last, data);
+                compress(codec, buffer, data);
+                buffer.close();
+                if (discard)
+                    BufferPool.shared.release(buffer);
+                else {
+                    if (checksums)
+                        checksum = GatheringOutputStream.checksum(buffer);
+                    result = buffer;
+                }
+            } catch (Throwable e) {
+                error = e;
+            } finally {
+                done.release();
+            }
+        }
     }
 
     /**
      * write T and F, start HD tasks and set awaitBuffers to the number of buffers if every entry had one block
      */
-    private void writeTF(BufferedOutStream out) throws Exception {
+    private void writeTF(BlockOutStream out) throws Exception {
 
         int awaitHulls = 0;
         final ArrayList<FieldDeclaration<?, ?>> fieldQueue;
@@ -182,7 +585,7 @@ final public class Writer {
             for (Pool<?> p : state.classes) {
                 if (null == p.superPool) {
                     bases++;
-                    State.pool.execute(new WCompress(this, p, bpos));
+                    executor.execute(new WCompress(this, p, bpos));
                 }
             }
 
@@ -271,7 +674,7 @@ final public class Writer {
         // note: we cannot start field jobs immediately because they could decrement deps to 0 multiple times in that
         // case
         for (FieldDeclaration<?, ?> f : fieldQueue) {
-            State.pool.execute(new WFT(this, f));
+            executor.execute(new WFT(this, f));
         }
 
         /**
@@ -6,8 +6,8 @@ import ogss.common.java.internal.FieldDeclaration;
 import ogss.common.java.internal.FieldType;
 import ogss.common.java.internal.Obj;
 import ogss.common.java.internal.Pool;
-import ogss.common.jvm.streams.BufferedOutStream;
 import ogss.common.jvm.streams.MappedInStream;
+import ogss.common.jvm.streams.OutStream;
 
 /**
  * This trait marks auto fields.
@@ -25,7 +25,7 @@ public abstract class AutoField<T, Ref extends Obj> extends FieldDeclaration<T,
     }
 
     @Override
-    protected boolean write(int i, int end, BufferedOutStream out) throws IOException {
+    protected boolean write(int i, int end, OutStream out) throws IOException {
         throw new NoSuchMethodError("one cannot write auto fields!");
     }
 }
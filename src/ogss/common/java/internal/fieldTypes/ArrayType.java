@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 import ogss.common.java.internal.FieldType;
-import ogss.common.jvm.streams.BufferedOutStream;
+import ogss.common.java.internal.streams.BlockOutStream;
 import ogss.common.jvm.streams.MappedInStream;
 
 public final class ArrayType<T> extends SingleArgumentType<ArrayList<T>, T> {
@@ -28,7 +28,7 @@ public final class ArrayType<T> extends SingleArgumentType<ArrayList<T>, T> {
     @Override
     protected int allocateInstances(int count, MappedInStream in) {
         // check for blocks
-        if (count > HD_Threshold) {
+        if (count > blockSize) {
             final int block = in.v32();
 
             // initialize idMap with null to allow parallel updates
@@ -39,8 +39,8 @@ public final class ArrayType<T> extends SingleArgumentType<ArrayList<T>, T> {
                         idMap.add(null);
                 }
             }
-            int i = block * HD_Threshold;
-            final int end = Math.min(count, i + HD_Threshold);
+            int i = block * blockSize;
+            final int end = Math.min(count, i + blockSize);
             while (i < end)
                 idMap.set(++i, new ArrayList<>());
 
@@ -64,7 +64,7 @@ public final class ArrayType<T> extends SingleArgumentType<ArrayList<T>, T> {
     }
 
     @Override
-    protected final void write(int i, final int end, BufferedOutStream out) throws IOException {
+    protected final void write(int i, final int end, BlockOutStream out) throws IOException {
         while (i < end) {
             ArrayList<T> xs = idMap.get(++i);
             out.v64(xs.size());
@@ -6,7 +6,7 @@ import java.util.Map.Entry;
 
 import ogss.common.java.internal.ContainerType;
 import ogss.common.java.internal.FieldType;
-import ogss.common.jvm.streams.BufferedOutStream;
+import ogss.common.java.internal.streams.BlockOutStream;
 import ogss.common.jvm.streams.MappedInStream;
 
 public final class MapType<K, V> extends ContainerType<HashMap<K, V>> {
@@ -38,7 +38,7 @@ public final class MapType<K, V> extends ContainerType<HashMap<K, V>> {
     @Override
     protected int allocateInstances(int count, MappedInStream in) {
         // check for blocks
-        if (count > HD_Threshold) {
+        if (count > blockSize) {
             final int block = in.v32();
             // initialize idMap with null to allow parallel updates
             synchronized (this) {
@@ -48,8 +48,8 @@ public final class MapType<K, V> extends ContainerType<HashMap<K, V>> {
                         idMap.add(null);
                 }
             }
-            int i = block * HD_Threshold;
-            final int end = Math.min(count, i + HD_Threshold);
+            int i = block * blockSize;
+            final int end = Math.min(count, i + blockSize);
             while (i < end)
                 idMap.set(++i, new HashMap<>());
 
@@ -75,7 +75,7 @@ public final class MapType<K, V> extends ContainerType<HashMap<K, V>> {
     }
 
     @Override
-    protected final void write(int i, final int end, BufferedOutStream out) throws IOException {
+    protected final void write(int i, final int end, BlockOutStream out) throws IOException {
         while (i < end) {
             HashMap<K, V> xs = idMap.get(++i);
             out.v64(xs.size());
@@ -0,0 +1,116 @@
+package ogss.common.java.internal.streams;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import ogss.common.jvm.streams.OutStream;
+
+/**
+ * An output stream that collects written data in memory in blocks of BUFFER_SIZE bytes. Blocks are written by a
+ * GatheringOutputStream without copying them.
+ *
+ * @note this replaces ogss.common.jvm.streams.BufferedOutStream, which does not expose its blocks
+ */
+public final class BlockOutStream extends OutStream {
+
+    /**
+     * the number of bytes in complete
+     */
+    private int size;
+
+    /**
+     * full blocks waiting for write
+     */
+    private final ArrayList<ByteBuffer> complete = new ArrayList<>();
+
+    /**
+     * recycled blocks
+     */
+    private final ArrayList<ByteBuffer> empty = new ArrayList<>();
+
+    public BlockOutStream() {
+        super(ByteBuffer.allocate(BUFFER_SIZE));
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the number of bytes of a closed stream
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the blocks of a closed stream
+     * @note the blocks are owned by this stream
+     */
+    public List<ByteBuffer> blocks() {
+        return complete;
+    }
+
+    /**
+     * Put an array of bytes into the stream. Intended to be used for string images.
+     * 
+     * @note you may not modify data after putting it to a stream, because the actual put might be a deferred operation
+     * @param data
+     *            the data to be written
+     */
+    public void put(byte[] data) throws IOException {
+        // store the byte[] directly, if it is too large to be copied efficiently
+        if (data.length > BUFFER_SIZE) {
+            if (0 != buffer.position())
+                refresh();
+            final ByteBuffer b = ByteBuffer.wrap(data);
+            b.order(ByteOrder.LITTLE_ENDIAN);
+            complete.add(b);
+            size += data.length;
+        } else {
+            if (buffer.remaining() < data.length)
+                refresh();
+            buffer.put(data);
+        }
+    }
+
+    /**
+     * Recycle this stream. Invalidates its content, but keeps all memory.
+     */
+    public void recycle() {
+        // @note arrays wrapped by put are owned by its caller
+        for (ByteBuffer b : complete)
+            if (BUFFER_SIZE == b.capacity())
+                empty.add(b);
+        complete.clear();
+        size = 0;
+        buffer = empty.isEmpty() ? ByteBuffer.allocate(BUFFER_SIZE) : empty.remove(empty.size() - 1);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.clear();
+    }
+
+    @Override
+    protected void refresh() throws IOException {
+        final int p = buffer.position();
+        size += p;
+        buffer.limit(p);
+        buffer.position(0);
+        complete.add(buffer);
+        if (empty.isEmpty()) {
+            buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+        } else {
+            buffer = empty.remove(empty.size() - 1);
+            buffer.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        final int p = buffer.position();
+        size += p;
+        buffer.limit(p);
+        buffer.position(0);
+        complete.add(buffer);
+    }
+}
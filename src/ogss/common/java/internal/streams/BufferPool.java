@@ -0,0 +1,188 @@
+package ogss.common.java.internal.streams;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded pool of output buffers shared by all writers of a process. Block out streams keep the buffers they
+ * allocated, hence pooling them avoids reallocation of their buffers on every flush. Direct buffers are used by
+ * GatheringOutputStream.
+ *
+ * @note the capacity limits the number of bytes held by the pool; borrowed buffers are not accounted for
+ */
+public final class BufferPool {
+
+    /**
+     * The default capacity of the shared pool in bytes.
+     */
+    public static final long DEFAULT_CAPACITY = 64L << 20;
+
+    /**
+     * the size of a buffer allocated by BlockOutStream
+     */
+    private static final int STREAM_BUFFER_SIZE = 4096;
+
+    /**
+     * The pool used by all writers.
+     */
+    public static final BufferPool shared = new BufferPool(DEFAULT_CAPACITY);
+
+    private final ConcurrentLinkedQueue<BlockOutStream> streams = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<ByteBuffer> direct = new ConcurrentLinkedQueue<>();
+
+    private volatile long capacity;
+
+    /**
+     * bytes currently held by the pool
+     */
+    private final AtomicLong pooledBytes = new AtomicLong();
+
+    // metrics
+    private final LongAdder borrowed = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder discarded = new LongAdder();
+
+    public BufferPool(long capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Change the maximum number of bytes held by this pool. Buffers exceeding the new capacity are dropped on release.
+     */
+    public void setCapacity(long capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("capacity has to be positive");
+        this.capacity = capacity;
+    }
+
+    /**
+     * @return the maximum number of bytes held by this pool
+     */
+    public long capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return the number of bytes currently held by this pool
+     */
+    public long pooledBytes() {
+        return pooledBytes.get();
+    }
+
+    /**
+     * @return the number of buffers handed out by this pool
+     */
+    public long borrowed() {
+        return borrowed.sum();
+    }
+
+    /**
+     * @return the number of buffers that had to be allocated, because the pool was empty
+     */
+    public long allocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * @return the number of released buffers that were dropped, because the pool was full
+     */
+    public long discarded() {
+        return discarded.sum();
+    }
+
+    /**
+     * @return an empty stream
+     */
+    public BlockOutStream borrow() {
+        borrowed.increment();
+        final BlockOutStream r = streams.poll();
+        if (null == r) {
+            allocated.increment();
+            return new BlockOutStream();
+        }
+        // @note the size is reset by recycle, hence we have to take it first
+        pooledBytes.addAndGet(-bytes(r));
+        r.recycle();
+        return r;
+    }
+
+    /**
+     * Return a stream to the pool.
+     *
+     * @note out must have been closed and must not be used by the caller afterwards
+     */
+    public void release(BlockOutStream out) {
+        final long s = bytes(out);
+        if (reserve(s))
+            streams.add(out);
+    }
+
+    /**
+     * @return a cleared direct buffer with at least the requested capacity
+     */
+    public ByteBuffer borrowDirect(int capacity) {
+        borrowed.increment();
+        final ByteBuffer r = direct.poll();
+        if (null != r) {
+            pooledBytes.addAndGet(-r.capacity());
+            if (r.capacity() >= capacity) {
+                r.clear();
+                return r;
+            }
+            discarded.increment();
+        }
+        allocated.increment();
+        return ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * Return a direct buffer to the pool.
+     *
+     * @note data must not be used by the caller afterwards
+     */
+    public void release(ByteBuffer data) {
+        if (data.isDirect() && reserve(data.capacity()))
+            direct.add(data);
+    }
+
+    /**
+     * Drop all pooled buffers.
+     */
+    public void clear() {
+        for (BlockOutStream s; null != (s = streams.poll());)
+            pooledBytes.addAndGet(-bytes(s));
+        for (ByteBuffer b; null != (b = direct.poll());)
+            pooledBytes.addAndGet(-b.capacity());
+    }
+
+    /**
+     * @return true iff s bytes can be added to the pool
+     */
+    private boolean reserve(long s) {
+        long p;
+        do {
+            p = pooledBytes.get();
+            if (p + s > capacity) {
+                discarded.increment();
+                return false;
+            }
+        } while (!pooledBytes.compareAndSet(p, p + s));
+        return true;
+    }
+
+    /**
+     * @return the number of bytes held by a closed stream
+     * @note block out streams never release buffers, hence their size is a lower bound
+     */
+    private static long bytes(BlockOutStream out) {
+        return Math.max(STREAM_BUFFER_SIZE, out.size());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("BufferPool(%d/%d bytes, borrowed: %d, allocated: %d, discarded: %d)", pooledBytes(),
+                capacity, borrowed(), allocated(), discarded());
+    }
+}
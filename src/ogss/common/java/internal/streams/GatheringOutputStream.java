@@ -0,0 +1,313 @@
+package ogss.common.java.internal.streams;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+import ogss.common.java.api.Durability;
+import ogss.common.jvm.streams.OutStream;
+
+/**
+ * FileChannel based output stream that collects buffers until at least chunkSize bytes are pending and writes them
+ * with a single gathering write. Output to other streams, e.g. to memory, is written buffer by buffer.
+ *
+ * @note in contrast to FileOutputStream, block out streams passed to write are owned by this stream until they are
+ *       released to its buffer pool
+ */
+public final class GatheringOutputStream extends OutStream {
+
+    /**
+     * The default number of bytes collected before writing.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 22;
+
+    /**
+     * The maximum number of buffers passed to a single gathering write. This corresponds to IOV_MAX on Linux.
+     */
+    private static final int MAX_GATHER = 1024;
+
+    /**
+     * the target; file is null, if the target is an arbitrary output stream
+     */
+    private final WritableByteChannel channel;
+    private final FileChannel file;
+    private final OutputStream sink;
+
+    private final int chunkSize;
+
+    /**
+     * buffers waiting for write; the last one may be a view on buffer
+     */
+    private final ByteBuffer[] pending = new ByteBuffer[MAX_GATHER];
+    private int pendingCount;
+    private long pendingBytes;
+
+    /**
+     * the start of the region of buffer that has not yet been added to pending
+     */
+    private int mark;
+
+    /**
+     * the number of bytes written to file
+     */
+    private long written;
+
+    /**
+     * streams whose buffers are pending
+     */
+    private final ArrayList<BlockOutStream> retained = new ArrayList<>();
+
+    /**
+     * the pool providing buffer and taking written streams
+     */
+    private final BufferPool pool;
+
+    /**
+     * the sync performed on close
+     */
+    private final Durability durability;
+
+    public GatheringOutputStream(Path path, int chunkSize, BufferPool pool, Durability durability) throws IOException {
+        this(path, chunkSize, pool, durability, false);
+    }
+
+    /**
+     * @param append
+     *            if true, output starts at the end of an existing file
+     */
+    public GatheringOutputStream(Path path, int chunkSize, BufferPool pool, Durability durability, boolean append)
+            throws IOException {
+        super(pool.borrowDirect(Math.max(BUFFER_SIZE, Math.min(chunkSize, 1 << 20))));
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size has to be positive");
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+        this.durability = durability;
+        file = (FileChannel) Files.newByteChannel(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        file.position(append ? file.size() : 0);
+        channel = file;
+        sink = null;
+    }
+
+    /**
+     * Write to an arbitrary stream, e.g. to memory.
+     * 
+     * @note close flushes sink, but it does not close it
+     */
+    public GatheringOutputStream(OutputStream sink, int chunkSize, BufferPool pool) {
+        super(pool.borrowDirect(Math.max(BUFFER_SIZE, Math.min(chunkSize, 1 << 20))));
+        if (chunkSize <= 0)
+            throw new IllegalArgumentException("chunk size has to be positive");
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+        this.durability = Durability.NoSync;
+        file = null;
+        channel = Channels.newChannel(sink);
+        this.sink = sink;
+    }
+
+    /**
+     * @return a copy of the content of a closed stream
+     */
+    public static byte[] toArray(BlockOutStream out) {
+        final byte[] r = new byte[out.size()];
+        int p = 0;
+        for (ByteBuffer b : out.blocks()) {
+            final ByteBuffer d = b.duplicate();
+            final int n = d.remaining();
+            d.get(r, p, n);
+            p += n;
+        }
+        return r;
+    }
+
+    /**
+     * @return the CRC32 of the content of a closed stream
+     */
+    public static int checksum(BlockOutStream out) {
+        final CRC32 crc = new CRC32();
+        for (ByteBuffer b : out.blocks())
+            crc.update(b.duplicate());
+        return (int) crc.getValue();
+    }
+
+    /**
+     * add the unwritten part of buffer to pending
+     */
+    private void enqueueBuffer() throws IOException {
+        final int p = buffer.position();
+        if (mark != p) {
+            final ByteBuffer view = buffer.duplicate();
+            view.limit(p);
+            view.position(mark);
+            enqueue(view);
+            mark = p;
+        }
+    }
+
+    private void enqueue(ByteBuffer data) throws IOException {
+        if (MAX_GATHER == pendingCount)
+            flushPending();
+        pending[pendingCount++] = data;
+        pendingBytes += data.remaining();
+    }
+
+    /**
+     * write all pending buffers and hand back retained streams
+     */
+    private void flushPending() throws IOException {
+        int i = 0;
+        while (i < pendingCount) {
+            written += null == file ? channel.write(pending[i]) : file.write(pending, i, pendingCount - i);
+            while (i < pendingCount && !pending[i].hasRemaining())
+                pending[i++] = null;
+        }
+        pendingCount = 0;
+        pendingBytes = 0;
+
+        for (BlockOutStream out : retained)
+            pool.release(out);
+        retained.clear();
+    }
+
+    /**
+     * @return the number of bytes passed to this stream so far
+     */
+    public long position() {
+        return written + pendingBytes + (buffer.position() - mark);
+    }
+
+    @Override
+    protected void refresh() throws IOException {
+        enqueueBuffer();
+        flushPending();
+        buffer.position(0);
+        buffer.limit(buffer.capacity());
+        mark = 0;
+    }
+
+    /**
+     * Put an array of bytes into the stream. Intended to be used for string images.
+     *
+     * @note you may not modify data after putting it to a stream, because the actual put might be a deferred operation
+     * @param data
+     *            the data to be written
+     */
+    public void put(byte[] data) throws IOException {
+        // enqueue the byte[] directly, if it is too large to be copied efficiently
+        if (data.length > BUFFER_SIZE) {
+            enqueueBuffer();
+            enqueue(ByteBuffer.wrap(data));
+            if (pendingBytes >= chunkSize)
+                refresh();
+        } else {
+            if (buffer.remaining() < data.length)
+                refresh();
+            buffer.put(data);
+        }
+    }
+
+    /**
+     * Write a BlockOutStream to disk.
+     *
+     * @note out will be released to the pool as soon as it has been written
+     * @param out
+     *            the data to be written
+     */
+    public void write(BlockOutStream out) throws IOException {
+        enqueueBuffer();
+        retain(out);
+    }
+
+    /**
+     * Write a BlockOutStream to disk prepending it with its size in bytes.
+     *
+     * @note the size written is reduced by 2, as no valid buffer can be smaller than that
+     * @note out will be released to the pool as soon as it has been written
+     * @param out
+     *            the data to be written
+     */
+    public void writeSized(BlockOutStream out) throws IOException {
+        v64(out.size() - 2);
+        enqueueBuffer();
+        retain(out);
+    }
+
+    /**
+     * Write a closed stream prefixed by its size and followed by its checksum.
+     */
+    public void writeSized(BlockOutStream out, int checksum) throws IOException {
+        v64(out.size() + 4 - 2);
+        enqueueBuffer();
+        retain(out);
+        i8((byte) checksum);
+        i8((byte) (checksum >>> 8));
+        i8((byte) (checksum >>> 16));
+        i8((byte) (checksum >>> 24));
+    }
+
+    /**
+     * Copy a region of another file to this stream. The copy is performed by the operating system, if possible.
+     */
+    public void transfer(FileChannel src, long offset, long length) throws IOException {
+        refresh();
+        while (length > 0) {
+            final long n = src.transferTo(offset, length, channel);
+            if (n <= 0)
+                throw new IOException("unexpected end of file while transferring data");
+            offset += n;
+            length -= n;
+            written += n;
+        }
+    }
+
+    private void retain(BlockOutStream out) throws IOException {
+        for (ByteBuffer data : out.blocks())
+            enqueue(data);
+        // @note out must not be recycled by a flush caused by enqueue
+        retained.add(out);
+
+        if (pendingBytes >= chunkSize)
+            refresh();
+    }
+
+    /**
+     * write pending buffers, sync them as requested by durability and signal the underlying file channel to close
+     */
+    @Override
+    public void close() throws IOException {
+        refresh();
+        if (null == file) {
+            sink.flush();
+            pool.release(buffer);
+            buffer = null;
+            return;
+        }
+        if (file.size() != file.position()) {
+            file.truncate(file.position());
+        }
+        switch (durability) {
+        case NoSync:
+            break;
+        case DataSync:
+            file.force(false);
+            break;
+        case FullSync:
+            file.force(true);
+            break;
+        }
+        file.close();
+
+        pool.release(buffer);
+        buffer = null;
+    }
+}
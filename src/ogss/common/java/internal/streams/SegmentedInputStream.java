@@ -0,0 +1,177 @@
+package ogss.common.java.internal.streams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import ogss.common.jvm.streams.MappedInStream;
+
+/**
+ * FileChannel based input that maps a file in windows instead of mapping it as a whole. In contrast to
+ * FileInputStream, offsets into the file are 64 bit, i.e. a file can be larger than 2GiB. Input held in memory is
+ * used as a single window.
+ *
+ * @note a single region, i.e. the head of a file or a single HD entry, has to fit into a ByteBuffer
+ * @note this class is not thread-safe; mapped streams returned by it can be used by any thread
+ */
+public final class SegmentedInputStream implements AutoCloseable {
+
+    /**
+     * The default size of a mapped window. Larger regions get a window of their own.
+     */
+    public static final int WINDOW_SIZE = 1 << 30;
+
+    /**
+     * the file; null, if the input is held in memory
+     */
+    private final FileChannel file;
+
+    /**
+     * size of the file in bytes
+     */
+    private final long size;
+
+    /**
+     * absolute offset of the next HD entry
+     */
+    private long position;
+
+    /**
+     * the current window and its absolute offset; null, if nothing has been mapped yet
+     */
+    private ByteBuffer window;
+    private long windowStart;
+
+    /**
+     * The factory method.
+     */
+    public static SegmentedInputStream open(Path path) throws IOException {
+        return new SegmentedInputStream(
+                (FileChannel) Files.newByteChannel(path, StandardOpenOption.CREATE, StandardOpenOption.READ));
+    }
+
+    /**
+     * Use the remaining bytes of a heap or direct buffer as input.
+     *
+     * @note data is not copied, hence it must not be modified while it is in use
+     */
+    public static SegmentedInputStream wrap(ByteBuffer data) {
+        return new SegmentedInputStream(data.slice());
+    }
+
+    /**
+     * Read all bytes of a stream into memory and use them as input. The stream is not closed.
+     */
+    public static SegmentedInputStream read(InputStream in) throws IOException {
+        byte[] data = new byte[1 << 16];
+        int size = 0;
+        for (int n; -1 != (n = in.read(data, size, data.length - size));) {
+            size += n;
+            if (size == data.length) {
+                if (Integer.MAX_VALUE - 8 == size)
+                    throw new IOException("input streams are limited to 2GiB");
+                data = Arrays.copyOf(data, (int) Math.min(Integer.MAX_VALUE - 8, 2L * size));
+            }
+        }
+        return new SegmentedInputStream(ByteBuffer.wrap(data, 0, size).slice());
+    }
+
+    private SegmentedInputStream(FileChannel file) throws IOException {
+        this.file = file;
+        this.size = file.size();
+    }
+
+    private SegmentedInputStream(ByteBuffer data) {
+        this.file = null;
+        this.size = data.limit();
+        this.window = data;
+    }
+
+    /**
+     * @return size of the file in bytes
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return absolute offset of the next HD entry
+     */
+    public long position() {
+        return position;
+    }
+
+    /**
+     * @return true iff there are no more HD entries
+     */
+    public boolean eof() {
+        return size == position;
+    }
+
+    /**
+     * Map the head of the file, i.e. the region containing G, S and T. The caller has to invoke seek with the position
+     * of the returned stream after parsing the head.
+     *
+     * @note the head cannot be larger than 2GiB
+     */
+    public MappedInStream head() throws IOException {
+        return new MappedInStream(window(0, (int) Math.min(size, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Move to an absolute offset in the file.
+     */
+    public void seek(long position) {
+        if (position < 0 || size < position)
+            throw new IllegalArgumentException("offset " + position + " is not in the file");
+        this.position = position;
+    }
+
+    /**
+     * Map the next HD entry. The position is moved behind the mapped region.
+     *
+     * @return a stream starting with the fieldID of the entry
+     */
+    public MappedInStream nextBlock() throws IOException {
+        // the size is a v32, i.e. it has at most five bytes
+        final MappedInStream prefix = new MappedInStream(window(position, (int) Math.min(5L, size - position)));
+        final int start = prefix.position();
+        final int length = prefix.v32() + 2;
+        position += prefix.position() - start;
+
+        if (size - position < length)
+            throw new IOException(String.format("HD entry at 0x%X exceeds the end of file", position));
+
+        final MappedInStream r = new MappedInStream(window(position, length));
+        position += length;
+        return r;
+    }
+
+    /**
+     * @return a view on the region [offset, offset + length) whose position is relative to the window containing it
+     */
+    private ByteBuffer window(long offset, int length) throws IOException {
+        if (null == window || offset < windowStart || windowStart + window.capacity() < offset + length) {
+            windowStart = offset;
+            window = file.map(MapMode.READ_ONLY, offset, Math.min(size - offset, Math.max(WINDOW_SIZE, length)));
+        }
+        final ByteBuffer r = window.duplicate();
+        final int p = (int) (offset - windowStart);
+        r.limit(p + length);
+        r.position(p);
+        return r;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        if (null != file && file.isOpen())
+            file.close();
+    }
+}